@@ -1,6 +1,8 @@
 @echo off
 echo Building project...
-javac -cp "lib/*" src/main/java/util/DBConnection.java src/main/java/model/*.java src/main/java/dao/*.java src/main/java/AppServer.java -d out
+dir /s /b src\main\java\*.java > sources.txt
+javac -encoding UTF-8 -cp "lib/*" -d out @sources.txt
+del sources.txt
 echo Starting server...
 java -cp "lib/*;out" AppServer
 pause
@@ -0,0 +1,203 @@
+package bench;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpServer;
+import dao.BookDAO;
+import dao.BookSearchIndex;
+import dao.StockCounters;
+import model.Book;
+import model.Customer;
+import util.DBConnection;
+import util.PasswordHashing;
+import util.Router;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shared fixtures: an embedded H2 database in MySQL mode standing in for
+ * MySQL, deterministic sample rows, and an in-process HttpServer running the
+ * real handlers.
+ */
+final class BenchSupport {
+    static final int SEED_BOOKS = 10_000;
+    static final int SEED_CUSTOMERS = 10_000;
+    static final String USER_PASSWORD = "load-test-password";
+
+    private static final String REPLICA_URL_PREFIX = "jdbc:h2:mem:bench-replica-";
+
+    private static boolean databaseReady;
+
+    private BenchSupport() { }
+
+    /**
+     * Points Config at an empty env file and an in-memory database, then
+     * creates and seeds the schema. Must run before anything touches
+     * DBConnection; later calls in the same JVM are no-ops.
+     */
+    static void initDatabase() throws IOException, SQLException {
+        initDatabase(SEED_BOOKS, SEED_CUSTOMERS, 0);
+    }
+
+    /** Seeded users are user1@example.com and so on, all with the password {@link #USER_PASSWORD}. */
+    static synchronized void initDatabase(int bookCount, int customerCount, int userCount) throws IOException, SQLException {
+        if (databaseReady) return;
+        useEmptyEnv();
+        defaultProperty("DB_URL", "jdbc:h2:mem:bench;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        defaultProperty("DB_USER", "sa");
+        defaultProperty("DB_PASS", "");
+        defaultProperty("DB_POOL_MAX", "16");
+
+        // One hash shared by every user; salts being equal does not matter for load.
+        String hash = userCount > 0 ? PasswordHashing.get().hash(USER_PASSWORD) : null;
+        try (Connection conn = DBConnection.getConnection()) {
+            seed(conn, bookCount, customerCount, userCount, hash);
+        }
+        String replicaUrls = System.getProperty("DB_REPLICA_URLS", "");
+        for (String url : replicaUrls.split(",")) {
+            if (!url.startsWith(REPLICA_URL_PREFIX)) continue;
+            try (Connection conn = DriverManager.getConnection(url, "sa", "")) {
+                seed(conn, bookCount, customerCount, userCount, hash);
+            }
+        }
+        databaseReady = true;
+    }
+
+    private static void seed(Connection conn, int bookCount, int customerCount, int userCount, String hash)
+            throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.execute("CREATE TABLE IF NOT EXISTS users (id INT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(255), "
+                    + "email VARCHAR(255) UNIQUE, password VARCHAR(255))");
+            st.execute("CREATE TABLE IF NOT EXISTS books (id INT AUTO_INCREMENT PRIMARY KEY, title VARCHAR(255), "
+                    + "author VARCHAR(255), price DECIMAL(10,2), stock INT, version INT NOT NULL DEFAULT 1)");
+            st.execute("CREATE TABLE IF NOT EXISTS customers (id INT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(255), "
+                    + "email VARCHAR(255), phone VARCHAR(20), version INT NOT NULL DEFAULT 1)");
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT INTO books (title, author, price, stock) VALUES (?, ?, ?, ?)")) {
+                for (Book b : books(bookCount)) {
+                    ps.setString(1, b.getTitle());
+                    ps.setString(2, b.getAuthor());
+                    ps.setDouble(3, b.getPrice());
+                    ps.setInt(4, b.getStock());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT INTO customers (name, email, phone) VALUES (?, ?, ?)")) {
+                for (Customer c : customers(customerCount)) {
+                    ps.setString(1, c.getName());
+                    ps.setString(2, c.getEmail());
+                    ps.setString(3, c.getPhone());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            if (userCount > 0) {
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "INSERT INTO users (name, email, password) VALUES (?, ?, ?)")) {
+                    for (int i = 1; i <= userCount; i++) {
+                        ps.setString(1, "User " + i);
+                        ps.setString(2, "user" + i + "@example.com");
+                        ps.setString(3, hash);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+            }
+            conn.commit();
+        }
+    }
+
+    /**
+     * Points DB_REPLICA_URLS at in-memory databases that initDatabase seeds
+     * with the same rows as the primary. Nothing replicates between them, so
+     * they stand in for replicas on read-heavy runs only. Call before
+     * initDatabase.
+     */
+    static void useReplicas(int count) {
+        List<String> urls = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) urls.add(REPLICA_URL_PREFIX + i + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        defaultProperty("DB_REPLICA_URLS", String.join(",", urls));
+    }
+
+    /** Sets a system property unless the command line already did. */
+    static void defaultProperty(String key, String value) {
+        if (System.getProperty(key) == null) System.setProperty(key, value);
+    }
+
+    /** Lets Config load without a .env in the working directory; settings then come from system properties. */
+    static synchronized void useEmptyEnv() throws IOException {
+        if (System.getProperty("ENV_FILE") != null) return;
+        File env = File.createTempFile("bench", ".env");
+        env.deleteOnExit();
+        System.setProperty("ENV_FILE", env.getAbsolutePath());
+    }
+
+    static List<Book> books(int count) {
+        List<Book> list = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            list.add(new Book(i, "The Collected Works, Volume " + i, "Author " + (i % 997), 5 + (i % 4000) / 100.0, i % 50));
+        }
+        return list;
+    }
+
+    static List<Customer> customers(int count) {
+        List<Customer> list = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            Customer c = new Customer();
+            c.setId(i);
+            c.setName("Customer " + i);
+            c.setEmail("customer" + i + "@example.com");
+            c.setPhone(String.format("+1-555-%07d", i));
+            list.add(c);
+        }
+        return list;
+    }
+
+    static String bookJson(Gson gson, int i) {
+        return gson.toJson(new Book(0, "Benchmark Book " + i, "Bench Author", 12.5, 10));
+    }
+
+    /**
+     * Starts AppServer's BookHandler on an ephemeral port. The handlers are
+     * package-private classes of AppServer in the default package, so they
+     * are reached reflectively.
+     */
+    static HttpServer startBookServer(BookDAO dao) throws Exception {
+        BookSearchIndex index = new BookSearchIndex(new BookDAO(false));
+        index.rebuild();
+        Class<?> type = Class.forName("AppServer$BookHandler");
+        Constructor<?> constructor = type.getDeclaredConstructor(BookDAO.class, BookSearchIndex.class, StockCounters.class);
+        constructor.setAccessible(true);
+        Object handler = constructor.newInstance(dao, index, null);
+        Router router = new Router();
+        Method routes = type.getDeclaredMethod("routes", Router.Scope.class);
+        routes.setAccessible(true);
+        routes.invoke(handler, router.scope());
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", router);
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.start();
+        return server;
+    }
+
+    static void stop(HttpServer server) {
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+}
@@ -0,0 +1,93 @@
+package bench;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpServer;
+import dao.BookDAO;
+import dao.CachedBookDAO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BookHandler end to end: a real HTTP request over loopback into an
+ * in-process HttpServer, through the handler and DAO into the embedded
+ * database, and back.
+ *
+ * Without TCP_NODELAY every response stalls about 40ms on delayed ACKs,
+ * which would drown out everything else being measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+@State(Scope.Benchmark)
+public class BookHandlerBenchmark {
+
+    @Param({ "plain", "cached" })
+    public String books;
+
+    private final Gson gson = new Gson();
+    private final AtomicInteger posted = new AtomicInteger();
+    private HttpServer server;
+    private HttpClient client;
+    private String base;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchSupport.initDatabase();
+        server = BenchSupport.startBookServer(books.equals("cached") ? new CachedBookDAO(10_000, 500, 60_000) : new BookDAO(false));
+        base = "http://127.0.0.1:" + server.getAddress().getPort() + "/api/books";
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchSupport.stop(server);
+    }
+
+    @Benchmark
+    public String getById() throws Exception {
+        int id = ThreadLocalRandom.current().nextInt(1, BenchSupport.SEED_BOOKS + 1);
+        return send(HttpRequest.newBuilder(URI.create(base + "/" + id)).GET().build());
+    }
+
+    @Benchmark
+    public String getPage() throws Exception {
+        return send(HttpRequest.newBuilder(URI.create(base + "?limit=50")).GET().build());
+    }
+
+    @Benchmark
+    public String post() throws Exception {
+        String body = BenchSupport.bookJson(gson, posted.incrementAndGet());
+        return send(HttpRequest.newBuilder(URI.create(base))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build());
+    }
+
+    private String send(HttpRequest request) throws Exception {
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() >= 300) {
+            throw new IllegalStateException(request.method() + " " + request.uri() + " returned " + response.statusCode());
+        }
+        return response.body();
+    }
+}
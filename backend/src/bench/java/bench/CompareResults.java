@@ -0,0 +1,85 @@
+package bench;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH JSON result files and flags benchmarks that got worse by
+ * more than the threshold. Exits with status 1 if any did, so a build can
+ * fail on a regression.
+ *
+ * Usage: CompareResults baseline.json current.json [thresholdPercent]
+ */
+public class CompareResults {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CompareResults baseline.json current.json [thresholdPercent]");
+            System.exit(2);
+        }
+        Map<String, JsonObject> baseline = load(args[0]);
+        Map<String, JsonObject> current = load(args[1]);
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10.0;
+
+        int regressions = 0;
+        System.out.printf("%-70s %14s %14s %9s%n", "benchmark", "baseline", "current", "change");
+        for (Map.Entry<String, JsonObject> e : current.entrySet()) {
+            JsonObject before = baseline.get(e.getKey());
+            double now = score(e.getValue());
+            String unit = e.getValue().getAsJsonObject("primaryMetric").get("scoreUnit").getAsString();
+            if (before == null) {
+                System.out.printf("%-70s %14s %14.3f %9s  (new) %s%n", e.getKey(), "-", now, "", unit);
+                continue;
+            }
+            double then = score(before);
+            double change = then == 0 ? 0 : (now - then) / then * 100;
+            // Throughput should go up; every other mode reports time, which should go down.
+            boolean higherIsBetter = e.getValue().get("mode").getAsString().equals("thrpt");
+            boolean worse = higherIsBetter ? change < -threshold : change > threshold;
+            if (worse) regressions++;
+            System.out.printf("%-70s %14.3f %14.3f %+8.1f%% %s%s%n", e.getKey(), then, now, change, unit,
+                    worse ? "  REGRESSION" : "");
+        }
+        System.out.println(regressions == 0 ? "No regressions over " + threshold + "%"
+                : regressions + " regression(s) over " + threshold + "%");
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+
+    private static Map<String, JsonObject> load(String file) throws IOException {
+        Map<String, JsonObject> results = new TreeMap<>();
+        try (Reader in = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            JsonArray runs = JsonParser.parseReader(in).getAsJsonArray();
+            for (JsonElement run : runs) {
+                JsonObject o = run.getAsJsonObject();
+                results.put(key(o), o);
+            }
+        }
+        return results;
+    }
+
+    private static String key(JsonObject run) {
+        String name = run.get("benchmark").getAsString();
+        name = name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1);
+        JsonObject params = run.getAsJsonObject("params");
+        if (params == null) return name;
+        StringBuilder key = new StringBuilder(name);
+        for (Map.Entry<String, JsonElement> p : new TreeMap<>(params.asMap()).entrySet()) {
+            key.append(' ').append(p.getKey()).append('=').append(p.getValue().getAsString());
+        }
+        return key.toString();
+    }
+
+    private static double score(JsonObject run) {
+        return run.getAsJsonObject("primaryMetric").get("score").getAsDouble();
+    }
+}
@@ -0,0 +1,80 @@
+package bench;
+
+import dao.BookDAO;
+import dao.CachedBookDAO;
+import dao.CustomerDAO;
+import model.Book;
+import model.Customer;
+import model.Page;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/** Read paths of the DAOs against the embedded database, with and without the book cache. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DaoBenchmark {
+
+    @Param({ "plain", "cached" })
+    public String books;
+
+    private BookDAO bookDao;
+    private CustomerDAO customerDao;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchSupport.initDatabase();
+        bookDao = books.equals("cached") ? new CachedBookDAO(10_000, 500, 60_000) : new BookDAO();
+        customerDao = new CustomerDAO();
+    }
+
+    @Benchmark
+    public Book bookById() {
+        return bookDao.getById(randomId(BenchSupport.SEED_BOOKS));
+    }
+
+    @Benchmark
+    public List<Book> booksByIds() throws Exception {
+        List<Integer> ids = new ArrayList<>(20);
+        for (int i = 0; i < 20; i++) ids.add(randomId(BenchSupport.SEED_BOOKS));
+        return bookDao.getByIds(ids);
+    }
+
+    @Benchmark
+    public Page<Book> bookPage() throws Exception {
+        return bookDao.getPage(randomId(BenchSupport.SEED_BOOKS - 50), 50);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void streamAllBooks(Blackhole bh) throws Exception {
+        bookDao.streamAll(bh::consume);
+    }
+
+    @Benchmark
+    public Page<Customer> customerPage() throws Exception {
+        return customerDao.getCustomersPage(randomId(BenchSupport.SEED_CUSTOMERS - 50), 50);
+    }
+
+    private static int randomId(int max) {
+        return ThreadLocalRandom.current().nextInt(1, max + 1);
+    }
+}
@@ -0,0 +1,105 @@
+package bench;
+
+import com.google.gson.Gson;
+import model.Book;
+import model.Customer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.JsonBuffer;
+import util.ModelJson;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of the lists the list endpoints return: Gson to a String, Gson to
+ * the UTF-8 bytes actually sent, and ModelJson into a pooled buffer. Run with
+ * -prof gc to compare allocation per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonEncodingBenchmark {
+
+    @Param({ "10", "100", "1000", "10000" })
+    public int size;
+
+    private final Gson gson = new Gson();
+    private List<Book> books;
+    private List<Customer> customers;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchSupport.useEmptyEnv();
+        books = BenchSupport.books(size);
+        customers = BenchSupport.customers(size);
+        checkIdentical(books, ModelJson::book);
+        checkIdentical(customers, ModelJson::customer);
+        Book odd = new Book(1, "<Tom & Jerry's \"=\" \\ \t\u0001\u2028 caf\u00e9 \u20ac \ud83d\udcda \ud800>", null, 1e-7, -3);
+        checkIdentical(List.of(odd), ModelJson::book);
+    }
+
+    /** Fails the run if the hand-written encoder drifts from Gson by a single byte. */
+    private <T> void checkIdentical(List<T> items, ModelJson.Encoder<T> encoder) {
+        byte[] expected = gson.toJson(items).getBytes(StandardCharsets.UTF_8);
+        byte[] actual;
+        try (JsonBuffer out = JsonBuffer.acquire()) {
+            ModelJson.array(out, items, encoder);
+            actual = out.toByteArray();
+        }
+        if (!Arrays.equals(expected, actual)) {
+            throw new IllegalStateException("ModelJson output differs from Gson:\n"
+                    + new String(expected, StandardCharsets.UTF_8) + "\n" + new String(actual, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Benchmark
+    public String books() {
+        return gson.toJson(books);
+    }
+
+    @Benchmark
+    public String customers() {
+        return gson.toJson(customers);
+    }
+
+    @Benchmark
+    public byte[] booksUtf8() {
+        return gson.toJson(books).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] customersUtf8() {
+        return gson.toJson(customers).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int booksFast() {
+        try (JsonBuffer out = JsonBuffer.acquire()) {
+            ModelJson.array(out, books, ModelJson::book);
+            return out.size();
+        }
+    }
+
+    @Benchmark
+    public int customersFast() {
+        try (JsonBuffer out = JsonBuffer.acquire()) {
+            ModelJson.array(out, customers, ModelJson::customer);
+            return out.size();
+        }
+    }
+}
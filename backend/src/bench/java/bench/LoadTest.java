@@ -0,0 +1,320 @@
+package bench;
+
+import com.google.gson.Gson;
+import model.Book;
+import model.Order;
+import model.OrderLine;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import util.PageToken;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator for AppServer. By default it seeds an in-memory
+ * database, starts the real server in this JVM on port 9090 and drives a
+ * weighted mix of reads, writes and logins at a fixed request rate.
+ *
+ * Requests are sent on a fixed schedule whether or not earlier ones have
+ * finished. Latency is measured from when a request was due, not from when
+ * it went out, so a stalled server shows up in the percentiles instead of
+ * quietly lowering the offered load (coordinated omission).
+ *
+ * Usage: LoadTest [key=value ...]
+ *   rate=200 duration=60 warmup=10 books=10000 customers=10000 users=1000
+ *   mix=list:30,byId:30,search:10,customers:10,create:5,update:5,purchase:5,login:5
+ *   target=http://host:port   drive a server that is already running instead
+ *   slo=p99:250               fail (exit 1) if any endpoint's p99 exceeds 250ms
+ *   maxInFlight=10000 clientThreads=8
+ *   replicas=2                serve reads from that many seeded in-memory replicas
+ * Server settings can be passed as -D system properties, as with the server.
+ */
+public class LoadTest {
+
+    private static final String[] SEARCH_TERMS = { "collected", "works", "volume", "author", "vol", "12", "coll" };
+
+    private static final class Endpoint {
+        final String name;
+        final int weight;
+        final Histogram latency = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(10), 3);
+        final LongAdder ok = new LongAdder();
+        final LongAdder clientErrors = new LongAdder();
+        final LongAdder serverErrors = new LongAdder();
+        final LongAdder failures = new LongAdder();
+
+        Endpoint(String name, int weight) {
+            this.name = name;
+            this.weight = weight;
+        }
+
+        long count() {
+            return ok.sum() + clientErrors.sum() + serverErrors.sum() + failures.sum();
+        }
+    }
+
+    private final Map<String, String> options;
+    private final Gson gson = new Gson();
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private final int books;
+    private final int users;
+    private int totalWeight;
+    private String base;
+    private String token;
+    private HttpClient client;
+
+    LoadTest(Map<String, String> options) {
+        this.options = options;
+        this.books = intOption("books", 10_000);
+        this.users = intOption("users", 1_000);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) throw new IllegalArgumentException("Expected key=value, got " + arg);
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        System.exit(new LoadTest(options).run());
+    }
+
+    int run() throws Exception {
+        for (String entry : options.getOrDefault("mix",
+                "list:30,byId:30,search:10,customers:10,create:5,update:5,purchase:5,login:5").split(",")) {
+            String[] kv = entry.split(":");
+            int weight = Integer.parseInt(kv[1].trim());
+            if (weight > 0) endpoints.add(new Endpoint(kv[0].trim(), weight));
+            totalWeight += weight;
+        }
+
+        ExecutorService clientPool = Executors.newFixedThreadPool(intOption("clientThreads", 8), r -> {
+            Thread t = new Thread(r, "load-client");
+            t.setDaemon(true);
+            return t;
+        });
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(clientPool)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+
+        base = options.get("target");
+        if (base == null) {
+            startServer();
+            base = "http://127.0.0.1:9090";
+        }
+        token = login(1);
+
+        int rate = intOption("rate", 200);
+        int duration = intOption("duration", 60);
+        int warmup = intOption("warmup", 10);
+        System.out.printf("Offering %d req/s for %ds after %ds warmup against %s%n", rate, duration, warmup, base);
+        drive(rate, warmup, false);
+        drive(rate, duration, true);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (inFlight.get() > 0 && System.nanoTime() < deadline) Thread.sleep(50);
+        int abandoned = inFlight.get();
+
+        boolean passed = report(rate, duration, abandoned);
+        clientPool.shutdownNow();
+        return passed ? 0 : 1;
+    }
+
+    private void startServer() throws Exception {
+        // Generous login limits by default: every request comes from one address.
+        BenchSupport.defaultProperty("LOGIN_IP_BURST", "1000000");
+        BenchSupport.defaultProperty("LOGIN_IP_PER_MINUTE", "1000000");
+        BenchSupport.defaultProperty("LOGIN_EMAIL_BURST", "1000");
+        BenchSupport.defaultProperty("LOGIN_EMAIL_PER_MINUTE", "100000");
+        BenchSupport.defaultProperty("SESSION_SECRET", "load-test-secret-not-for-production-use");
+        BenchSupport.defaultProperty("SERVER_MAX_CONCURRENT", "1000");
+
+        int replicas = intOption("replicas", 0);
+        if (replicas > 0) BenchSupport.useReplicas(replicas);
+
+        long start = System.nanoTime();
+        BenchSupport.initDatabase(books, intOption("customers", 10_000), users);
+        System.out.printf("Seeded %d books, %d customers, %d users in %dms%n", books,
+                intOption("customers", 10_000), users, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        // AppServer lives in the default package, which named packages cannot import.
+        Class.forName("AppServer").getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+    }
+
+    private String login(int user) throws Exception {
+        HttpResponse<String> response = client.send(loginRequest(user), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Login for user" + user + " failed with " + response.statusCode()
+                    + ": " + response.body());
+        }
+        return gson.fromJson(response.body(), Map.class).get("token").toString();
+    }
+
+    /** Issues requests on a fixed schedule for the given number of seconds. */
+    private void drive(int rate, int seconds, boolean record) {
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long total = (long) rate * seconds;
+        int maxInFlight = intOption("maxInFlight", 10_000);
+        long start = System.nanoTime();
+        for (long i = 0; i < total; i++) {
+            long due = start + i * interval;
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                if (wait > 100_000) LockSupport.parkNanos(wait - 50_000);
+                else Thread.onSpinWait();
+            }
+            Endpoint endpoint = pick();
+            if (inFlight.get() >= maxInFlight) {
+                // Queuing it would let client memory grow without bound; count it as dropped instead.
+                if (record) dropped.increment();
+                continue;
+            }
+            inFlight.incrementAndGet();
+            client.sendAsync(request(endpoint.name), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        inFlight.decrementAndGet();
+                        if (!record) return;
+                        endpoint.latency.recordValue(Math.max(1, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - due)));
+                        if (error != null) endpoint.failures.increment();
+                        else if (response.statusCode() >= 500) endpoint.serverErrors.increment();
+                        else if (response.statusCode() >= 400) endpoint.clientErrors.increment();
+                        else endpoint.ok.increment();
+                    });
+        }
+    }
+
+    private Endpoint pick() {
+        int r = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Endpoint e : endpoints) {
+            r -= e.weight;
+            if (r < 0) return e;
+        }
+        return endpoints.get(endpoints.size() - 1);
+    }
+
+    private HttpRequest request(String name) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch (name) {
+            case "list": {
+                int after = random.nextInt(Math.max(1, books - 50));
+                return get("/api/books?limit=50" + (after > 0 ? "&after=" + PageToken.encode(after) : ""));
+            }
+            case "byId":
+                return get("/api/books/" + (1 + random.nextInt(books)));
+            case "search":
+                return get("/api/books/search?q=" + SEARCH_TERMS[random.nextInt(SEARCH_TERMS.length)] + "&limit=20");
+            case "customers":
+                return get("/api/customers?limit=50");
+            case "create":
+                return send("POST", "/api/books", gson.toJson(new Book(0, "Load Book " + random.nextInt(1_000_000),
+                        "Load Author", 9.99, 20)));
+            case "update": {
+                int id = 1 + random.nextInt(books);
+                return send("PUT", "/api/books/" + id, gson.toJson(new Book(id, "The Collected Works, Volume " + id,
+                        "Author " + (id % 997), 19.99, 25)));
+            }
+            case "purchase":
+                return send("POST", "/api/books/purchase", gson.toJson(new Order(List.of(
+                        new OrderLine(1 + random.nextInt(books), 1)))));
+            case "login":
+                return loginRequest(1 + random.nextInt(Math.max(1, users)));
+            default:
+                throw new IllegalArgumentException("Unknown endpoint in mix: " + name);
+        }
+    }
+
+    private HttpRequest loginRequest(int user) {
+        String body = gson.toJson(Map.of("email", "user" + user + "@example.com", "password", BenchSupport.USER_PASSWORD));
+        return HttpRequest.newBuilder(URI.create(base + "/api/login"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(base + path))
+                .header("Authorization", "Bearer " + token)
+                .GET()
+                .build();
+    }
+
+    private HttpRequest send(String method, String path, String body) {
+        return HttpRequest.newBuilder(URI.create(base + path))
+                .header("Authorization", "Bearer " + token)
+                .header("Content-Type", "application/json")
+                .method(method, HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private boolean report(int rate, int seconds, int abandoned) {
+        Histogram all = new Histogram(TimeUnit.MINUTES.toMicros(10), 3);
+        String slo = options.get("slo");
+        double sloPercentile = 0;
+        double sloMillis = 0;
+        if (slo != null) {
+            String[] parts = slo.replace("p", "").split(":");
+            sloPercentile = Double.parseDouble(parts[0]);
+            sloMillis = Double.parseDouble(parts[1]);
+        }
+
+        System.out.printf("%n%-10s %8s %9s %6s %6s %6s %9s %9s %9s %9s %9s%n", "endpoint", "count", "req/s",
+                "4xx", "5xx", "fail", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        boolean passed = true;
+        long completed = 0;
+        for (Endpoint e : endpoints) {
+            Histogram h = e.latency.copy();
+            all.add(h);
+            completed += e.count();
+            boolean breached = slo != null && h.getTotalCount() > 0 && millis(h, sloPercentile) > sloMillis;
+            passed &= !breached;
+            print(e.name, e.count(), e.count() / (double) seconds, e.clientErrors.sum(), e.serverErrors.sum(),
+                    e.failures.sum(), h, breached);
+        }
+        print("all", completed, completed / (double) seconds, -1, -1, -1, all, false);
+
+        System.out.printf("%nOffered %d req/s, completed %.1f req/s; %d dropped at the in-flight cap, %d unfinished%n",
+                rate, completed / (double) seconds, dropped.sum(), abandoned);
+        if (slo != null) {
+            System.out.printf("SLO p%s <= %.0fms: %s%n", trim(sloPercentile), sloMillis, passed ? "PASS" : "FAIL");
+        }
+        return passed && (slo == null || dropped.sum() == 0);
+    }
+
+    private static void print(String name, long count, double perSecond, long clientErrors, long serverErrors,
+                              long failures, Histogram h, boolean breached) {
+        System.out.printf("%-10s %8d %9.1f %6s %6s %6s %9.2f %9.2f %9.2f %9.2f %9.2f%s%n", name, count, perSecond,
+                clientErrors < 0 ? "" : clientErrors, serverErrors < 0 ? "" : serverErrors, failures < 0 ? "" : failures,
+                millis(h, 50), millis(h, 90), millis(h, 99), millis(h, 99.9), h.getMaxValue() / 1000.0,
+                breached ? "  SLO BREACH" : "");
+    }
+
+    private static double millis(Histogram h, double percentile) {
+        return h.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    private static String trim(double d) {
+        return d == Math.rint(d) ? String.valueOf((long) d) : String.valueOf(d);
+    }
+
+    private int intOption(String key, int defaultValue) {
+        String value = options.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+}
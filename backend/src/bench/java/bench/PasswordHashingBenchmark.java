@@ -0,0 +1,74 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import util.PasswordHashing;
+import util.Pbkdf2PasswordHasher;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one password hash, which is what UserDAO.hashPassword does on
+ * register, at a range of PBKDF2 iteration counts. "hashPassword" goes
+ * through the server's bounded hashing pool as well. "login" samples verify
+ * latency from 16 concurrent callers sharing that pool, so queueing behind
+ * other logins counts; use it to pick PASSWORD_COST and HASH_THREADS.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PasswordHashingBenchmark {
+
+    @Param({ "10000", "100000", "210000", "600000" })
+    public int cost;
+
+    private Pbkdf2PasswordHasher hasher;
+    private String stored;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchSupport.useEmptyEnv();
+        // Each parameter runs in its own fork, so the shared pool picks this up on first use.
+        System.setProperty("PASSWORD_COST", String.valueOf(cost));
+        // Measure queueing in full rather than turning slow logins into BusyException.
+        System.setProperty("HASH_QUEUE_CAPACITY", "64");
+        System.setProperty("HASH_TIMEOUT_MS", "60000");
+        hasher = new Pbkdf2PasswordHasher(cost);
+        stored = hasher.hash("correct horse battery staple");
+    }
+
+    @Benchmark
+    public String hash() {
+        return hasher.hash("correct horse battery staple");
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return hasher.verify("correct horse battery staple", stored);
+    }
+
+    @Benchmark
+    public String hashPassword() {
+        return PasswordHashing.get().hash("correct horse battery staple");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @Threads(16)
+    public boolean login() {
+        return PasswordHashing.get().verify("correct horse battery staple", stored);
+    }
+}
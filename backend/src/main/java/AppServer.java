@@ -1,271 +1,1186 @@
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpExchange;
-import com.sun.net.httpserver.HttpHandler;
 
+import dao.BatchWriter;
 import dao.BookDAO;
+import dao.BookImporter;
+import dao.BookSearchIndex;
+import dao.CachedBookDAO;
+import dao.ChangeLog;
 import dao.CustomerDAO;
+import dao.CustomerWriteBehind;
+import dao.RowSink;
+import dao.StockCounters;
 import dao.UserDAO;
 
 import model.Book;
+import model.BookPatch;
+import model.ChangeSet;
 import model.Customer;
+import model.CustomerPatch;
+import model.ImportProgress;
+import model.Order;
+import model.OrderLine;
+import model.Page;
+import model.PurchaseResult;
+import model.UpdateResult;
 import model.User;
 
+import util.AdmissionFilter;
+import util.AuthFilter;
+import util.Config;
+import util.DBConnection;
+import util.EncodedResponse;
+import util.EncodedResponseCache;
+import util.JsonBuffer;
+import util.LruCache;
+import util.Metrics;
+import util.MetricsFilter;
+import util.ModelJson;
+import util.PageToken;
+import util.PasswordHashing;
+import util.QueryParams;
+import util.RateLimiter;
+import util.Responses;
+import util.Router;
+import util.ServerExecutors;
+import util.SessionTokens;
+import util.StartupTimer;
+import util.Warmup;
+
 import java.io.*;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 public class AppServer {
+    /** Books and customers go through ModelJson unless JSON_ENCODER=gson. */
+    static final boolean FAST_JSON = !"gson".equalsIgnoreCase(Config.get("JSON_ENCODER", "fast"));
 
     public static void main(String[] args) throws Exception {
-        HttpServer server = HttpServer.create(new InetSocketAddress(9090), 0);
+        StartupTimer startup = new StartupTimer();
+        boolean exitAfterWarmup = List.of(args).contains("--exit-after-warmup");
+        // Read once when the HTTP server classes load; without it small responses wait on delayed ACKs.
+        if (Config.getBoolean("SERVER_TCP_NODELAY", true) && System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        startup.lap("config");
+
+        DBConnection.warm(Config.getInt("DB_POOL_MIN", 2));
+        startup.lap("database");
+
+        AdmissionFilter admission = new AdmissionFilter(
+                Config.getInt("SERVER_MAX_CONCURRENT", 200),
+                Config.getLong("SERVER_ADMISSION_WAIT_MS", 0));
+
+        BookDAO bookDao = Config.getBoolean("BOOK_CACHE_ENABLED", true)
+                ? new CachedBookDAO(
+                        Config.getInt("BOOK_CACHE_MAX_ENTRIES", 10000),
+                        Config.getInt("BOOK_CACHE_MAX_PAGES", 500),
+                        Config.getLong("BOOK_CACHE_TTL_MS", 60000))
+                // Listings are kept in the response cache, so they read the primary either way.
+                : new BookDAO(false);
+
+        BookSearchIndex searchIndex = new BookSearchIndex(new BookDAO(false));
+        searchIndex.rebuild();
+        BookDAO.addChangeListener(searchIndex);
+        System.out.println("🔍 Search index built over " + searchIndex.size() + " books");
+        startup.lap("search index");
+
+        StockCounters stockCounters = null;
+        if (Config.getBoolean("STOCK_COUNTERS_ENABLED", false)) {
+            stockCounters = new StockCounters(
+                    Config.getInt("STOCK_COUNTERS_MAX_ENTRIES", 10000),
+                    Config.getLong("STOCK_COUNTERS_TTL_MS", 5000),
+                    Config.getInt("STOCK_COUNTERS_HOT_PURCHASES", 5),
+                    Config.getLong("STOCK_COUNTERS_HOT_WINDOW_MS", 1000));
+            BookDAO.addChangeListener(stockCounters);
+        }
+
+        SessionTokens sessions = SessionTokens.fromConfig();
+        AuthFilter auth = new AuthFilter(sessions);
+        boolean authRequired = Config.getBoolean("AUTH_REQUIRED", true);
+
+        Router router = new Router();
+        Filter[] protectedFilters = authRequired ? new Filter[] { admission, auth } : new Filter[] { admission };
+        new BookHandler(bookDao, searchIndex, stockCounters).routes(scope(router, "/api/books", protectedFilters));
+        CustomerDAO customerDao = new CustomerDAO();
+        CustomerWriteBehind customerWriteBehind = Config.getBoolean("CUSTOMER_WRITE_BEHIND", false)
+                ? CustomerWriteBehind.fromConfig(customerDao)
+                : null;
+        new CustomerHandler(customerDao, customerWriteBehind).routes(scope(router, "/api/customers", protectedFilters));
+        ChangeHandler changes = new ChangeHandler();
+        changes.routes(scope(router, "/api/changes", protectedFilters));
+        // Streams stay open indefinitely, so they are capped by the handler instead of holding admission slots.
+        changes.streamRoutes(authRequired ? router.scope(auth) : router.scope());
+        scope(router, "/api/register", admission).post("/api/register", new RegisterHandler());
+        long limiterSweepMs = Config.getLong("LOGIN_LIMITER_SWEEP_MS", 30000);
+        int limiterMaxKeys = Config.getInt("LOGIN_LIMITER_MAX_KEYS", 100000);
+        RateLimiter loginsByIp = new RateLimiter("ip",
+                Config.getInt("LOGIN_IP_BURST", 20),
+                Config.getInt("LOGIN_IP_PER_MINUTE", 60),
+                limiterMaxKeys, limiterSweepMs);
+        RateLimiter loginsByEmail = new RateLimiter("email",
+                Config.getInt("LOGIN_EMAIL_BURST", 5),
+                Config.getInt("LOGIN_EMAIL_PER_MINUTE", 6),
+                limiterMaxKeys, limiterSweepMs);
+        scope(router, "/api/login", admission).post("/api/login", new LoginHandler(sessions, loginsByIp, loginsByEmail,
+                Config.getBoolean("LOGIN_TRUST_FORWARDED", false)));
+        new SessionHandler(sessions).routes(scope(router, "/api/session", admission));
+        scope(router, "/api/stats").get("/api/stats", new StatsHandler(bookDao, customerWriteBehind, admission,
+                loginsByIp, loginsByEmail));
+        if (Config.getBoolean("METRICS_ENABLED", true)) {
+            registerGauges(admission, loginsByIp, loginsByEmail);
+            if (customerWriteBehind != null) {
+                Metrics.gauge("customer_write_behind_pending", "Customer updates journaled but not yet in the database",
+                        "gauge", "", customerWriteBehind::getPending);
+            }
+            Metrics.gauge("change_stream_subscribers", "Open change-feed streams", "gauge", "", changes::getSubscribers);
+            router.scope().get("/metrics", new MetricsHandler());
+        }
+        startup.lap("routes");
+
+        prebuildSerializers();
+        startup.lap("serializers");
+
+        int warmupIterations = Config.getInt("STARTUP_WARMUP_ITERATIONS", 200);
+        if (warmupIterations > 0) {
+            Map<String, String> headers = new LinkedHashMap<>();
+            headers.put("Accept-Encoding", "gzip");
+            if (authRequired) headers.put("Authorization", "Bearer " + sessions.issue(0));
+            Warmup warmup = new Warmup(router, headers);
+            warmup.run(warmupPaths(bookDao), warmupIterations, Config.getLong("STARTUP_WARMUP_MAX_MS", 5000));
+            Metrics.reset();
+            System.out.println("🔥 Warmed up with " + warmup.getRequests() + " synthetic requests"
+                    + (warmup.getFailures() > 0 ? " (" + warmup.getFailures() + " failed)" : ""));
+            startup.lap("warmup");
+        }
+        if (exitAfterWarmup) {
+            // Training run for an AppCDS archive: everything startup loads has been loaded by now.
+            startup.report();
+            System.exit(0);
+        }
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(9090), Config.getInt("SERVER_BACKLOG", 0));
+        server.createContext("/", router);
 
-        server.createContext("/api/books", new BookHandler());
-        server.createContext("/api/customers", new CustomerHandler());
-        server.createContext("/api/register", new RegisterHandler());
-        server.createContext("/api/login", new LoginHandler());
+        String executorMode = Config.get("SERVER_EXECUTOR", "virtual");
+        ExecutorService executor = ServerExecutors.create(executorMode,
+                Config.getInt("SERVER_THREADS", 64),
+                Config.getInt("SERVER_QUEUE_CAPACITY", 1000));
+        server.setExecutor(executor);
 
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(1);
+            if (executor != null) executor.shutdown();
+            if (customerWriteBehind != null) {
+                try {
+                    customerWriteBehind.close();
+                } catch (IOException | SQLException e) {
+                    System.out.println("❌ Customer updates left in the journal for the next start: " + e.getMessage());
+                }
+            }
+        }));
 
-        server.setExecutor(null);
-        System.out.println("✅ Server running at http://localhost:9090");
         server.start();
+        startup.lap("bind");
+        System.out.println("✅ Server running at http://localhost:9090 (executor=" + executorMode + ", " + admission.description() + ")");
+        startup.report();
+    }
+
+    // ---------------- STARTUP ----------------
+    /** Shared by the handlers, so adapters built here are the ones requests use. Gson is thread-safe. */
+    static final Gson GSON = new Gson();
+
+    /** Builds Gson's reflective adapters and fills the JSON buffer pool before the first request needs them. */
+    static void prebuildSerializers() {
+        for (Class<?> type : List.of(Book.class, BookPatch.class, Customer.class, CustomerPatch.class, User.class,
+                Order.class, OrderLine.class, Page.class, ChangeSet.class, UpdateResult.class, PurchaseResult.class,
+                ImportProgress.class)) {
+            GSON.getAdapter(type);
+        }
+        List<JsonBuffer> buffers = new ArrayList<>();
+        for (int i = Config.getInt("JSON_BUFFER_POOL_SIZE", 64); i > 0; i--) buffers.add(JsonBuffer.acquire());
+        buffers.forEach(JsonBuffer::close);
+    }
+
+    /** Read-only requests that cover the hot handlers: list, lookup, search, customers and the change feed. */
+    static List<String> warmupPaths(BookDAO bookDao) throws SQLException {
+        List<String> paths = new ArrayList<>(List.of(
+                "/api/books?limit=50",
+                "/api/books/search?q=the",
+                "/api/customers?limit=50",
+                "/api/changes"));
+        List<Book> first = bookDao.getPage(0, 1).getItems();
+        if (!first.isEmpty()) paths.add("/api/books/" + first.get(0).getId());
+        return paths;
+    }
+
+    // ---------------- STREAMING EXPORT ----------------
+    interface RowStreamer<T> {
+        void stream(RowSink<T> sink) throws SQLException, IOException;
+    }
+
+    /** A group of routes whose requests are timed under one endpoint label, then passed through the given filters. */
+    static Router.Scope scope(Router router, String endpoint, Filter... filters) {
+        List<Filter> chain = new ArrayList<>();
+        if (Config.getBoolean("METRICS_ENABLED", true)) chain.add(new MetricsFilter(endpoint));
+        chain.addAll(List.of(filters));
+        return router.scope(chain);
+    }
+
+    /** Exposes existing pool, admission and login counters on /metrics. */
+    static void registerGauges(AdmissionFilter admission, RateLimiter... loginLimiters) {
+        Metrics.gauge("db_pool_connections", "Pooled connections by state", "gauge", "state=\"active\"",
+                () -> DBConnection.getPoolStats().getActive());
+        Metrics.gauge("db_pool_connections", "Pooled connections by state", "gauge", "state=\"idle\"",
+                () -> DBConnection.getPoolStats().getIdle());
+        Metrics.gauge("db_pool_waiting", "Threads waiting for a connection", "gauge", "",
+                () -> DBConnection.getPoolStats().getWaiting());
+        Metrics.gauge("db_pool_timeouts_total", "Borrows that timed out", "counter", "",
+                () -> DBConnection.getPoolStats().getTimeouts());
+        if (DBConnection.hasReplicas()) {
+            Metrics.gauge("db_replicas_healthy", "Read replicas currently in rotation", "gauge", "",
+                    DBConnection::getHealthyReplicas);
+        }
+        Metrics.gauge("http_in_flight", "Requests currently admitted", "gauge", "", admission::getInFlight);
+        Metrics.gauge("http_admission_rejected_total", "Requests turned away with 503", "counter", "",
+                admission::getRejected);
+        for (RateLimiter limiter : loginLimiters) {
+            String key = Metrics.label("key", limiter.getName());
+            Metrics.gauge("login_attempts_total", "Login attempts checked by the rate limiter", "counter",
+                    key + ",result=\"admitted\"", limiter::getAdmitted);
+            Metrics.gauge("login_attempts_total", "Login attempts checked by the rate limiter", "counter",
+                    key + ",result=\"rejected\"", limiter::getRejected);
+        }
+        Metrics.gauge("login_unknown_email_hits_total", "Logins refused from the unknown-email cache", "counter", "",
+                () -> UserDAO.unknownEmailStats().getHits());
+        Metrics.gauge("password_hash_rejected_total", "Hash requests refused because the pool was full", "counter", "",
+                () -> PasswordHashing.get().getRejected());
+    }
+
+    /**
+     * Writes rows as a JSON array straight onto the response body using chunked
+     * encoding, so memory stays flat regardless of table size. Once headers are
+     * out a failure can only be signalled by cutting the response short: see
+     * abortStream.
+     */
+    static <T> void streamJsonArray(HttpExchange exchange, Gson gson, Class<T> type, ModelJson.Encoder<T> encoder,
+                                    RowStreamer<T> streamer) throws IOException {
+        OutputStream body = Responses.stream(exchange, 200, Responses.JSON);
+        if (FAST_JSON) {
+            streamEncoded(exchange, body, encoder, streamer);
+            return;
+        }
+        try {
+            JsonWriter writer = new JsonWriter(new BufferedWriter(
+                    new OutputStreamWriter(body, StandardCharsets.UTF_8), 16 * 1024));
+            writer.beginArray();
+            streamer.stream(row -> {
+                long start = System.nanoTime();
+                gson.toJson(row, type, writer);
+                Metrics.serialized(start);
+            });
+            writer.endArray();
+            writer.close();
+        } catch (SQLException | IOException | RuntimeException e) {
+            throw abortStream(e);
+        }
+        exchange.close();
+    }
+
+    /** streamJsonArray through a pooled buffer that is flushed to the socket every 16 KB. */
+    private static <T> void streamEncoded(HttpExchange exchange, OutputStream os, ModelJson.Encoder<T> encoder,
+                                          RowStreamer<T> streamer) throws IOException {
+        try (JsonBuffer out = JsonBuffer.acquire()) {
+            out.raw('[');
+            boolean[] first = { true };
+            streamer.stream(row -> {
+                long start = System.nanoTime();
+                if (!first[0]) out.raw(',');
+                first[0] = false;
+                encoder.write(out, row);
+                Metrics.serialized(start);
+                if (out.size() >= 16 * 1024) {
+                    out.writeTo(os);
+                    out.reset();
+                }
+            });
+            out.raw(']');
+            out.writeTo(os);
+            os.close();
+        } catch (SQLException | IOException | RuntimeException e) {
+            throw abortStream(e);
+        }
+        exchange.close();
+    }
+
+    /**
+     * Closing the exchange after a failure would send the final empty chunk,
+     * and the cut-off array would arrive as a complete 200. The exception is
+     * thrown out through the Router, which leaves a started response open, and
+     * the server then drops the connection without the final chunk.
+     */
+    private static IOException abortStream(Exception e) {
+        System.out.println("❌ Export aborted: " + e.getMessage());
+        return e instanceof IOException ? (IOException) e : new IOException("Export aborted", e);
+    }
+
+    // ---------------- BATCH WRITES ----------------
+    interface BatchOpener<T> {
+        BatchWriter<T> open(int chunkSize) throws SQLException;
+    }
+
+    interface ItemReader<T> {
+        T read(JsonReader reader) throws IOException;
+    }
+
+    /**
+     * Reads a JSON array item by item and feeds it to a BatchWriter, so large
+     * payloads are applied in BATCH_CHUNK_SIZE slices of one transaction
+     * without the whole array being held in memory. Items failing validation
+     * are reported and skipped; a database error rolls the whole batch back.
+     */
+    static <T> void applyBatch(HttpExchange exchange, Gson gson, BatchOpener<T> opener,
+                               ItemReader<T> itemReader, Function<T, String> validator) throws IOException {
+        int chunkSize = Config.getInt("BATCH_CHUNK_SIZE", 500);
+        int maxItems = Config.getInt("BATCH_MAX_ITEMS", 100000);
+        try (JsonReader reader = new JsonReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+             BatchWriter<T> writer = opener.open(chunkSize)) {
+            reader.beginArray();
+            int count = 0;
+            while (reader.hasNext()) {
+                if (++count > maxItems) {
+                    Responses.error(exchange, 413, "Batch exceeds " + maxItems + " items");
+                    return;
+                }
+                T item = itemReader.read(reader);
+                String error = item == null ? "Item is null" : validator.apply(item);
+                if (error != null) writer.reject(error);
+                else writer.add(item);
+            }
+            reader.endArray();
+            writer.commit();
+
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("applied", writer.getApplied());
+            body.put("failed", writer.getFailed());
+            body.put("results", writer.getResults());
+            sendJson(exchange, toJson(gson, body), 200);
+        } catch (IOException | IllegalStateException | JsonParseException | NumberFormatException e) {
+            Responses.error(exchange, 400, "Malformed batch: expected a JSON array");
+        } catch (SQLException | RuntimeException e) {
+            Responses.error(exchange, 500, "Batch rolled back: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reports a versioned write. 200 carries the row as written, including its
+     * new version. 409 carries the current row, so the client can merge and
+     * retry against that version.
+     */
+    static <T> void sendUpdate(HttpExchange exchange, Gson gson, UpdateResult<T> result,
+                               ModelJson.Encoder<T> encoder, String entity) throws IOException {
+        T current = result.getCurrent();
+        switch (result.getStatus()) {
+            case UPDATED:
+                if (FAST_JSON) sendEncoded(exchange, out -> encoder.write(out, current), 200);
+                else sendJson(exchange, toJson(gson, current), 200);
+                break;
+            case CONFLICT:
+                String message = entity + " was changed by someone else";
+                if (FAST_JSON) {
+                    sendEncoded(exchange, out -> {
+                        out.raw("{\"error\":").string(message).raw(",\"current\":");
+                        encoder.write(out, current);
+                        out.raw('}');
+                    }, 409);
+                } else {
+                    Map<String, Object> body = new LinkedHashMap<>();
+                    body.put("error", message);
+                    body.put("current", current);
+                    sendJson(exchange, toJson(gson, body), 409);
+                }
+                break;
+            default:
+                Responses.error(exchange, 404, entity + " not found");
+        }
+    }
+
+    /** gson.toJson, with the time counted as serialization for the current request. */
+    static String toJson(Gson gson, Object value) {
+        long start = System.nanoTime();
+        try {
+            return gson.toJson(value);
+        } finally {
+            Metrics.serialized(start);
+        }
+    }
+
+    interface JsonBody {
+        void write(JsonBuffer out);
+    }
+
+    /** Encodes into a pooled buffer, counted as serialization, and returns a copy of the bytes. */
+    static byte[] encode(JsonBody body) {
+        long start = System.nanoTime();
+        try (JsonBuffer out = JsonBuffer.acquire()) {
+            body.write(out);
+            return out.toByteArray();
+        } finally {
+            Metrics.serialized(start);
+        }
+    }
+
+    /** Encodes into a pooled buffer and writes it to the exchange without an intermediate String. */
+    static void sendEncoded(HttpExchange exchange, JsonBody body, int code) throws IOException {
+        try (JsonBuffer out = JsonBuffer.acquire()) {
+            long start = System.nanoTime();
+            body.write(out);
+            Metrics.serialized(start);
+            Responses.json(exchange, code, out);
+        }
+    }
+
+    static void sendJson(HttpExchange exchange, String response, int code) throws IOException {
+        Responses.json(exchange, code, response);
     }
 
     // ---------------- BOOK HANDLER ----------------
-    static class BookHandler implements HttpHandler {
-        private final BookDAO dao = new BookDAO();
-        private final Gson gson = new Gson();
+    static class BookHandler {
+        private final BookDAO dao;
+        private final BookSearchIndex searchIndex;
+        private final StockCounters stockCounters;
+        private final Gson gson = GSON;
+        private final EncodedResponseCache responses =
+                new EncodedResponseCache("books", Config.getInt("RESPONSE_CACHE_MAX_ENTRIES", 200),
+                        Config.getLong("RESPONSE_CACHE_TTL_MS", 60000));
 
-        @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            String method = exchange.getRequestMethod();
-            String path = exchange.getRequestURI().getPath();
-            String[] parts = path.split("/");
-            Integer id = parts.length > 3 ? tryParse(parts[3]) : null;
-
-            exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
-            exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS");
-            exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type");
-
-            if (method.equalsIgnoreCase("OPTIONS")) {
-                exchange.sendResponseHeaders(204, -1);
+        BookHandler(BookDAO dao, BookSearchIndex searchIndex, StockCounters stockCounters) {
+            this.dao = dao;
+            this.searchIndex = searchIndex;
+            this.stockCounters = stockCounters;
+        }
+
+        void routes(Router.Scope scope) {
+            scope.get("/api/books", this::list)
+                    .post("/api/books", this::create)
+                    .get("/api/books/export", (exchange, params) ->
+                            streamJsonArray(exchange, gson, Book.class, ModelJson::book, dao::streamAll))
+                    .get("/api/books/search", this::search)
+                    .get("/api/books/import", (exchange, params) -> sendJson(exchange, toJson(gson, BookImporter.running()), 200))
+                    .post("/api/books/import", this::importCsv)
+                    .post("/api/books/purchase", this::purchase)
+                    .post("/api/books/batch", (exchange, params) ->
+                            applyBatch(exchange, gson, dao::batchAdd, r -> gson.fromJson(r, Book.class), this::validate))
+                    .put("/api/books/batch", (exchange, params) ->
+                            applyBatch(exchange, gson, dao::batchUpdate, r -> gson.fromJson(r, Book.class),
+                                    b -> b.getId() <= 0 ? "id is required" : validate(b)))
+                    .delete("/api/books/batch", (exchange, params) ->
+                            applyBatch(exchange, gson, dao::batchDelete, JsonReader::nextInt,
+                                    id -> id <= 0 ? "id must be positive" : null))
+                    .get("/api/books/{id}", this::getById)
+                    .put("/api/books/{id}", this::update)
+                    .patch("/api/books/{id}", this::patch)
+                    .delete("/api/books/{id}", this::delete);
+        }
+
+        private void list(HttpExchange exchange, Router.Params path) throws Exception {
+            Map<String, String> params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+            if ("true".equals(params.get("all"))) {
+                sendCatalog(exchange, "all", () -> {
+                    List<Book> all = dao.getAll();
+                    return FAST_JSON
+                            ? encode(out -> ModelJson.array(out, all, ModelJson::book))
+                            : toJson(gson, all).getBytes(StandardCharsets.UTF_8);
+                });
+                return;
+            }
+            int limit;
+            int afterId;
+            try {
+                limit = QueryParams.pageSize(params);
+                afterId = PageToken.decode(params.get("after"));
+            } catch (IllegalArgumentException e) {
+                Responses.error(exchange, 400, e.getMessage());
+                return;
+            }
+            sendCatalog(exchange, afterId + ":" + limit, () -> {
+                Page<Book> page = dao.getPage(afterId, limit);
+                return FAST_JSON
+                        ? encode(out -> ModelJson.page(out, page, ModelJson::book))
+                        : toJson(gson, page).getBytes(StandardCharsets.UTF_8);
+            });
+        }
+
+        private void getById(HttpExchange exchange, Router.Params params) throws Exception {
+            Book found = dao.getById(params.getInt("id"));
+            if (found == null)
+                Responses.error(exchange, 404, "Book not found");
+            else if (FAST_JSON)
+                sendEncoded(exchange, out -> ModelJson.book(out, found), 200);
+            else
+                sendJson(exchange, toJson(gson, found), 200);
+        }
+
+        private void create(HttpExchange exchange, Router.Params params) throws Exception {
+            Book book = gson.fromJson(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8), Book.class);
+            dao.add(book);
+            sendJson(exchange, "{\"message\":\"Book added\"}", 201);
+        }
+
+        private void update(HttpExchange exchange, Router.Params params) throws Exception {
+            Book updatedBook = gson.fromJson(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8), Book.class);
+            updatedBook.setId(params.getInt("id"));
+            sendUpdate(exchange, gson, dao.update(updatedBook), ModelJson::book, "Book");
+        }
+
+        private void patch(HttpExchange exchange, Router.Params params) throws Exception {
+            BookPatch patch;
+            try {
+                patch = gson.fromJson(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8), BookPatch.class);
+            } catch (JsonParseException e) {
+                Responses.error(exchange, 400, "Malformed patch");
+                return;
+            }
+            String error = patch == null || patch.isEmpty() ? "Patch has no fields to update" : validate(patch);
+            if (error != null) {
+                Responses.error(exchange, 400, error);
                 return;
             }
+            sendUpdate(exchange, gson, dao.patch(params.getInt("id"), patch), ModelJson::book, "Book");
+        }
+
+        private void delete(HttpExchange exchange, Router.Params params) throws Exception {
+            dao.delete(params.getInt("id"));
+            sendJson(exchange, "{\"message\":\"Book deleted\"}", 200);
+        }
 
+        private void purchase(HttpExchange exchange, Router.Params params) throws IOException {
+            Order order;
             try {
-                switch (method) {
-                    case "GET":
-                        if (id == null) {
-                            List<Book> books = dao.getAll();
-                            sendResponse(exchange, gson.toJson(books), 200);
-                        }
-                        break;
-
-                    case "POST":
-                        Book book = gson.fromJson(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8), Book.class);
-                        dao.add(book);
-                        sendResponse(exchange, "{\"message\":\"Book added\"}", 201);
-                        break;
-
-                    case "PUT":
-                        if (id == null) {
-                            sendResponse(exchange, "{\"error\":\"Book ID missing in URL\"}", 400);
-                            return;
-                        }
-                        Book updatedBook = gson.fromJson(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8), Book.class);
-                        updatedBook.setId(id);
-                        dao.update(updatedBook);
-                        sendResponse(exchange, "{\"message\":\"Book updated\"}", 200);
-                        break;
-
-                    case "DELETE":
-                        if (id == null) {
-                            sendResponse(exchange, "{\"error\":\"Book ID missing in URL\"}", 400);
-                            return;
-                        }
-                        dao.delete(id);
-                        sendResponse(exchange, "{\"message\":\"Book deleted\"}", 200);
-                        break;
-
-                    default:
-                        sendResponse(exchange, "{\"error\":\"Unsupported method\"}", 405);
+                order = gson.fromJson(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8), Order.class);
+            } catch (JsonParseException e) {
+                Responses.error(exchange, 400, "Malformed order");
+                return;
+            }
+            if (order == null || order.getLines() == null || order.getLines().isEmpty()) {
+                Responses.error(exchange, 400, "Order has no lines");
+                return;
+            }
+            for (OrderLine line : order.getLines()) {
+                if (line == null || line.getBookId() <= 0 || line.getQuantity() <= 0) {
+                    Responses.error(exchange, 400, "Each line needs a bookId and a positive quantity");
+                    return;
                 }
-            } catch (Exception e) {
-                sendResponse(exchange, "{\"error\":\"" + e.getMessage() + "\"}", 500);
+            }
+            try {
+                PurchaseResult result = dao.purchase(order.getLines(), stockCounters);
+                sendJson(exchange, toJson(gson, result), result.isSuccess() ? 200 : 409);
+            } catch (SQLException e) {
+                Responses.error(exchange, 500, "Purchase failed: " + e.getMessage());
             }
         }
 
-        private Integer tryParse(String s) {
-            try { return Integer.parseInt(s); } catch (Exception e) { return null; }
+        private void search(HttpExchange exchange, Router.Params path) throws IOException {
+            Map<String, String> params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+            int limit;
+            int offset;
+            try {
+                limit = QueryParams.pageSize(params);
+                offset = params.containsKey("offset") ? Integer.parseInt(params.get("offset")) : 0;
+                if (offset < 0) throw new IllegalArgumentException("offset must not be negative");
+            } catch (NumberFormatException e) {
+                Responses.error(exchange, 400, "offset must be a number");
+                return;
+            } catch (IllegalArgumentException e) {
+                Responses.error(exchange, 400, e.getMessage());
+                return;
+            }
+            String q = params.getOrDefault("q", "");
+            sendJson(exchange, toJson(gson, searchIndex.search(q, offset, limit)), 200);
+        }
+
+        private void importCsv(HttpExchange exchange, Router.Params params) throws IOException {
+            BookImporter importer = new BookImporter(dao,
+                    Config.getInt("IMPORT_CHUNK_SIZE", 1000),
+                    Config.getInt("IMPORT_QUEUE_CHUNKS", 4),
+                    Config.getInt("IMPORT_MAX_ERRORS", 1000));
+            try {
+                ImportProgress result = importer.run(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+                System.out.println("📦 Book import " + result.getJobId() + " " + result.getStatus() + ": "
+                        + result.getRowsImported() + " rows in " + result.getElapsedMs() + "ms ("
+                        + Math.round(result.getRowsPerSecond()) + " rows/sec), " + result.getRowsFailed() + " failed");
+                sendJson(exchange, toJson(gson, result), result.getStatus().equals("completed") ? 200 : 500);
+            } catch (IllegalArgumentException e) {
+                Responses.error(exchange, 400, e.getMessage());
+            } catch (IOException e) {
+                Responses.error(exchange, 400, "Could not read CSV: " + e.getMessage());
+            }
         }
 
-        private void sendResponse(HttpExchange exchange, String response, int code) throws IOException {
-            byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.sendResponseHeaders(code, bytes.length);
-            try (OutputStream os = exchange.getResponseBody()) { os.write(bytes); }
+        private String validate(Book b) {
+            if (b.getTitle() == null || b.getTitle().isBlank()) return "title is required";
+            if (b.getAuthor() == null || b.getAuthor().isBlank()) return "author is required";
+            if (b.getPrice() < 0) return "price must not be negative";
+            if (b.getStock() < 0) return "stock must not be negative";
+            return null;
+        }
+
+        private String validate(BookPatch p) {
+            if (p.getTitle() != null && p.getTitle().isBlank()) return "title must not be blank";
+            if (p.getAuthor() != null && p.getAuthor().isBlank()) return "author must not be blank";
+            if (p.getPrice() != null && (p.getPrice() < 0 || p.getPrice().isNaN())) return "price must not be negative";
+            if (p.getStock() != null && p.getStock() < 0) return "stock must not be negative";
+            return null;
+        }
+
+        /**
+         * Sends a catalog listing from pre-encoded bytes tagged with the catalog
+         * generation. A client that already holds the current version gets a 304
+         * without the DAO or Gson being touched.
+         */
+        private void sendCatalog(HttpExchange exchange, String key, Callable<byte[]> render) throws Exception {
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Content-Type", Responses.JSON);
+            headers.set("Cache-Control", "no-cache");
+            headers.set("Vary", "Accept-Encoding");
+
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            if (ifNoneMatch != null) {
+                String etag = responses.etag(key, BookDAO.catalogGeneration());
+                String gzipEtag = EncodedResponse.gzipEtag(etag);
+                if (EncodedResponse.matches(ifNoneMatch, etag) || EncodedResponse.matches(ifNoneMatch, gzipEtag)) {
+                    headers.set("ETag", EncodedResponse.matches(ifNoneMatch, etag) ? etag : gzipEtag);
+                    Responses.empty(exchange, 304);
+                    return;
+                }
+            }
+
+            EncodedResponse encoded = responses.get(key, BookDAO::catalogGeneration, render);
+            if (Responses.shouldGzip(exchange, encoded.getBody().length)) {
+                headers.set("Content-Encoding", "gzip");
+                headers.set("ETag", encoded.getGzipEtag());
+                Responses.raw(exchange, 200, encoded.getGzipped());
+            } else {
+                headers.set("ETag", encoded.getEtag());
+                Responses.raw(exchange, 200, encoded.getBody());
+            }
         }
     }
 
     // ---------------- CUSTOMER HANDLER ----------------
-    static class CustomerHandler implements HttpHandler {
-        private final CustomerDAO dao = new CustomerDAO();
-        private final Gson gson = new Gson();
+    static class CustomerHandler {
+        private final CustomerDAO dao;
+        private final CustomerWriteBehind writeBehind;
+        private final Gson gson = GSON;
 
-        @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            String method = exchange.getRequestMethod();
-            String path = exchange.getRequestURI().getPath();
-            String[] parts = path.split("/");
-            Integer id = parts.length > 3 ? tryParse(parts[3]) : null;
-
-            exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
-            exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS");
-            exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type");
-
-            if (method.equalsIgnoreCase("OPTIONS")) {
-                exchange.sendResponseHeaders(204, -1);
+        CustomerHandler(CustomerDAO dao, CustomerWriteBehind writeBehind) {
+            this.dao = dao;
+            this.writeBehind = writeBehind;
+        }
+
+        void routes(Router.Scope scope) {
+            scope.get("/api/customers", this::list)
+                    .post("/api/customers", this::create)
+                    .get("/api/customers/export", (exchange, params) ->
+                            streamJsonArray(exchange, gson, Customer.class, ModelJson::customer, dao::streamAllCustomers))
+                    .post("/api/customers/batch", (exchange, params) ->
+                            applyBatch(exchange, gson, dao::batchAddCustomers, r -> gson.fromJson(r, Customer.class), this::validate))
+                    .put("/api/customers/batch", (exchange, params) -> {
+                        if (writeBehind != null) writeBehind.flush();
+                        applyBatch(exchange, gson, dao::batchUpdateCustomers, r -> gson.fromJson(r, Customer.class),
+                                c -> c.getId() <= 0 ? "id is required" : validate(c));
+                    })
+                    .delete("/api/customers/batch", (exchange, params) ->
+                            applyBatch(exchange, gson, dao::batchDeleteCustomers, JsonReader::nextInt,
+                                    id -> id <= 0 ? "id must be positive" : null))
+                    .put("/api/customers/{id}", this::update)
+                    .patch("/api/customers/{id}", this::patch)
+                    .delete("/api/customers/{id}", this::delete);
+        }
+
+        private void list(HttpExchange exchange, Router.Params path) throws Exception {
+            Map<String, String> params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+            if ("true".equals(params.get("all"))) {
+                List<Customer> customers = overlay(dao.getAllCustomers());
+                if (FAST_JSON) sendEncoded(exchange, out -> ModelJson.array(out, customers, ModelJson::customer), 200);
+                else sendJson(exchange, toJson(gson, customers), 200);
                 return;
             }
-
+            int limit;
+            int afterId;
             try {
-                switch (method) {
-                    case "GET":
-                        if (id == null) {
-                            List<Customer> customers = dao.getAllCustomers();
-                            sendResponse(exchange, gson.toJson(customers), 200);
-                        }
-                        break;
-
-                    case "POST":
-                        Customer c = gson.fromJson(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8), Customer.class);
-                        dao.addCustomer(c);
-                        sendResponse(exchange, "{\"message\":\"Customer added\"}", 201);
-                        break;
-
-                    case "PUT":
-                        if (id == null) {
-                            sendResponse(exchange, "{\"error\":\"Customer ID missing in URL\"}", 400);
-                            return;
-                        }
-                        Customer updated = gson.fromJson(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8), Customer.class);
-                        updated.setId(id);
-                        dao.updateCustomer(updated);
-                        sendResponse(exchange, "{\"message\":\"Customer updated\"}", 200);
-                        break;
-
-                    case "DELETE":
-                        if (id == null) {
-                            sendResponse(exchange, "{\"error\":\"Customer ID missing in URL\"}", 400);
-                            return;
-                        }
-                        dao.deleteCustomer(id);
-                        sendResponse(exchange, "{\"message\":\"Customer deleted\"}", 200);
-                        break;
-
-                    default:
-                        sendResponse(exchange, "{\"error\":\"Unsupported method\"}", 405);
+                limit = QueryParams.pageSize(params);
+                afterId = PageToken.decode(params.get("after"));
+            } catch (IllegalArgumentException e) {
+                Responses.error(exchange, 400, e.getMessage());
+                return;
+            }
+            Page<Customer> stored = dao.getCustomersPage(afterId, limit);
+            Page<Customer> page = new Page<>(overlay(stored.getItems()), stored.getNext());
+            if (FAST_JSON) sendEncoded(exchange, out -> ModelJson.page(out, page, ModelJson::customer), 200);
+            else sendJson(exchange, toJson(gson, page), 200);
+        }
+
+        private void create(HttpExchange exchange, Router.Params params) throws Exception {
+            Customer c = gson.fromJson(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8), Customer.class);
+            dao.addCustomer(c);
+            sendJson(exchange, "{\"message\":\"Customer added\"}", 201);
+        }
+
+        private void update(HttpExchange exchange, Router.Params params) throws Exception {
+            Customer updated = gson.fromJson(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8), Customer.class);
+            updated.setId(params.getInt("id"));
+            if (writeBehind != null) {
+                if (updated.getVersion() == 0) {
+                    // Unconditional: durable in the journal now, in the database on the next flush.
+                    try {
+                        writeBehind.submit(updated);
+                    } catch (CustomerWriteBehind.FullException e) {
+                        exchange.getResponseHeaders().set("Retry-After", "1");
+                        Responses.error(exchange, 503, "Server busy, try again later");
+                        return;
+                    }
+                    sendJson(exchange, "{\"message\":\"Customer update accepted\"}", 202);
+                    return;
                 }
-            } catch (Exception e) {
-                sendResponse(exchange, "{\"error\":\"" + e.getMessage() + "\"}", 500);
+                writeBehind.settle(updated.getId());
+            }
+            sendUpdate(exchange, gson, dao.updateCustomer(updated), ModelJson::customer, "Customer");
+        }
+
+        private void patch(HttpExchange exchange, Router.Params params) throws Exception {
+            CustomerPatch patch;
+            try {
+                patch = gson.fromJson(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8), CustomerPatch.class);
+            } catch (JsonParseException e) {
+                Responses.error(exchange, 400, "Malformed patch");
+                return;
             }
+            if (patch == null || patch.isEmpty()) {
+                Responses.error(exchange, 400, "Patch has no fields to update");
+                return;
+            }
+            if (patch.getName() != null && patch.getName().isBlank()) {
+                Responses.error(exchange, 400, "name must not be blank");
+                return;
+            }
+            if (writeBehind != null) writeBehind.settle(params.getInt("id"));
+            sendUpdate(exchange, gson, dao.patchCustomer(params.getInt("id"), patch), ModelJson::customer, "Customer");
         }
 
-        private Integer tryParse(String s) {
-            try { return Integer.parseInt(s); } catch (Exception e) { return null; }
+        private void delete(HttpExchange exchange, Router.Params params) throws Exception {
+            if (writeBehind != null) writeBehind.settle(params.getInt("id"));
+            dao.deleteCustomer(params.getInt("id"));
+            sendJson(exchange, "{\"message\":\"Customer deleted\"}", 200);
         }
 
-        private void sendResponse(HttpExchange exchange, String response, int code) throws IOException {
-            byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.sendResponseHeaders(code, bytes.length);
-            try (OutputStream os = exchange.getResponseBody()) { os.write(bytes); }
+        private List<Customer> overlay(List<Customer> rows) {
+            return writeBehind == null ? rows : writeBehind.overlay(rows);
+        }
+
+        private String validate(Customer c) {
+            if (c.getName() == null || c.getName().isBlank()) return "name is required";
+            return null;
         }
     }
 
-    // ---------------- AUTH HANDLERS ----------------
-    static class RegisterHandler implements HttpHandler {
-        private final UserDAO dao = new UserDAO();
-        private final Gson gson = new Gson();
+    // ---------------- CHANGE FEED ----------------
+    /**
+     * GET /api/changes?since=N returns what changed after cursor N, and
+     * GET /api/changes/stream pushes the same deltas as server-sent events,
+     * resuming from Last-Event-ID. Deltas carry current rows, so a client may
+     * see a row again after it already has that state. It never misses a
+     * write. A cursor the log no longer covers gets 410, or a "reset" event on
+     * the stream, and the client reloads the full lists.
+     */
+    static class ChangeHandler {
+        private static final class Delta {
+            final long next;
+            final byte[] body;
 
-        @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            String method = exchange.getRequestMethod();
-            exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
-            exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "POST, OPTIONS");
-            exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type");
-
-            if (method.equalsIgnoreCase("OPTIONS")) {
-                exchange.sendResponseHeaders(204, -1);
+            Delta(long next, byte[] body) {
+                this.next = next;
+                this.body = body;
+            }
+        }
+
+        private final ChangeLog log = ChangeLog.get();
+        private final BookDAO books = new BookDAO();
+        private final CustomerDAO customers = new CustomerDAO();
+        private final Gson gson = GSON;
+        private final int batchMax = Config.getInt("CHANGE_BATCH_MAX", 500);
+        private final long heartbeatMs = Config.getLong("CHANGE_STREAM_HEARTBEAT_MS", 15000);
+        private final int maxStreams = Config.getInt("CHANGE_STREAM_MAX_CLIENTS", 16);
+        private final Semaphore streams = new Semaphore(maxStreams);
+        // Subscribers woken by the same write ask for the same range; one of them reads the rows.
+        private final LruCache<String, Delta> deltas = new LruCache<>(256, Config.getLong("CHANGE_DELTA_CACHE_MS", 1000));
+
+        void routes(Router.Scope scope) {
+            scope.get("/api/changes", this::since);
+        }
+
+        void streamRoutes(Router.Scope scope) {
+            scope.get("/api/changes/stream", this::stream);
+        }
+
+        int getSubscribers() {
+            return maxStreams - streams.availablePermits();
+        }
+
+        private void since(HttpExchange exchange, Router.Params path) throws Exception {
+            Map<String, String> params = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+            int limit;
+            long since;
+            try {
+                limit = params.containsKey("limit") ? Math.min(QueryParams.pageSize(params), batchMax) : batchMax;
+            } catch (IllegalArgumentException e) {
+                Responses.error(exchange, 400, e.getMessage());
                 return;
             }
+            try {
+                since = params.containsKey("since") ? Long.parseLong(params.get("since")) : -1;
+            } catch (NumberFormatException e) {
+                Responses.error(exchange, 400, "since must be a cursor returned as next");
+                return;
+            }
+            if (since < 0) {
+                Responses.json(exchange, 200, "{\"next\":" + log.latest() + "}");
+                return;
+            }
+            Delta delta = delta(since, limit);
+            if (delta == null)
+                Responses.json(exchange, 410, "{\"error\":\"Cursor expired, reload\",\"next\":" + log.latest() + "}");
+            else
+                Responses.send(exchange, 200, Responses.JSON, delta.body, delta.body.length);
+        }
 
-            if (method.equalsIgnoreCase("POST")) {
-                InputStreamReader reader = new InputStreamReader(exchange.getRequestBody());
-                User user = gson.fromJson(reader, User.class);
-                if (user.getEmail() == null || user.getPassword() == null || user.getName() == null) {
-                    sendResponse(exchange, "{\"error\":\"Missing required fields\"}", 400);
-                    return;
+        private void stream(HttpExchange exchange, Router.Params path) throws IOException {
+            if (!streams.tryAcquire()) {
+                exchange.getResponseHeaders().set("Retry-After", "5");
+                Responses.error(exchange, 503, "Too many change subscribers");
+                return;
+            }
+            try {
+                long requested = resumeFrom(exchange);
+                long cursor = requested >= 0 && log.after(requested, 0) != null ? requested : log.latest();
+                Headers headers = exchange.getResponseHeaders();
+                headers.set("Content-Type", "text/event-stream; charset=UTF-8");
+                headers.set("Cache-Control", "no-cache");
+                headers.set("X-Accel-Buffering", "no");
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream os = exchange.getResponseBody();
+                event(os, requested < 0 || requested == cursor ? "ready" : "reset", cursor, "{\"next\":" + cursor + "}");
+                while (true) {
+                    if (log.await(cursor, heartbeatMs) == cursor) {
+                        os.write(": ping\n\n".getBytes(StandardCharsets.US_ASCII));
+                        os.flush();
+                        continue;
+                    }
+                    Delta delta = delta(cursor, batchMax);
+                    if (delta == null) {
+                        cursor = log.latest();
+                        event(os, "reset", cursor, "{\"next\":" + cursor + "}");
+                        continue;
+                    }
+                    cursor = delta.next;
+                    event(os, "changes", cursor, delta.body);
                 }
-                boolean success = dao.register(user);
-                if (success)
-                    sendResponse(exchange, "{\"message\":\"User registered successfully\"}", 201);
-                else
-                    sendResponse(exchange, "{\"error\":\"User registration failed\"}", 400);
-            } else {
-                sendResponse(exchange, "{\"error\":\"Unsupported method\"}", 405);
+            } catch (IOException e) {
+                // Client went away.
+            } catch (SQLException e) {
+                // The client reconnects from the last event it received.
+                System.out.println("❌ Change stream closed: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                streams.release();
+                exchange.close();
+            }
+        }
+
+        /** Last-Event-ID from a reconnecting EventSource, else ?since=, else -1 for "from now". */
+        private long resumeFrom(HttpExchange exchange) {
+            String cursor = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+            if (cursor == null) cursor = QueryParams.parse(exchange.getRequestURI().getRawQuery()).get("since");
+            try {
+                return cursor == null ? -1 : Long.parseLong(cursor.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        private static void event(OutputStream os, String name, long id, String data) throws IOException {
+            event(os, name, id, data.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private static void event(OutputStream os, String name, long id, byte[] data) throws IOException {
+            os.write(("event: " + name + "\nid: " + id + "\ndata: ").getBytes(StandardCharsets.US_ASCII));
+            os.write(data);
+            os.write("\n\n".getBytes(StandardCharsets.US_ASCII));
+            os.flush();
+        }
+
+        /**
+         * The encoded delta after the cursor, or null when the log no longer
+         * covers it. Ids missing from the reads are reported as deleted, so a
+         * failed read must throw: it is neither cached nor sent, and the
+         * client's cursor stays put.
+         */
+        private Delta delta(long since, int limit) throws SQLException {
+            List<ChangeLog.Change> changes = log.after(since, limit);
+            if (changes == null) return null;
+            long next = since + changes.size();
+            String key = since + ":" + next;
+            Delta cached = deltas.get(key);
+            if (cached != null) return cached;
+
+            Set<Integer> bookIds = new LinkedHashSet<>();
+            Set<Integer> customerIds = new LinkedHashSet<>();
+            for (ChangeLog.Change change : changes) {
+                (change.getEntity() == ChangeLog.Entity.BOOK ? bookIds : customerIds).add(change.getId());
             }
+            List<Book> bookRows = bookIds.isEmpty() ? List.of() : books.getByIds(bookIds);
+            List<Customer> customerRows = customerIds.isEmpty() ? List.of() : customers.getByIds(customerIds);
+            List<Integer> deletedBooks = new ArrayList<>(bookIds);
+            for (Book b : bookRows) deletedBooks.remove(Integer.valueOf(b.getId()));
+            List<Integer> deletedCustomers = new ArrayList<>(customerIds);
+            for (Customer c : customerRows) deletedCustomers.remove(Integer.valueOf(c.getId()));
+
+            ChangeSet set = new ChangeSet(next, next < log.latest(), bookRows, deletedBooks, customerRows, deletedCustomers);
+            byte[] body = FAST_JSON
+                    ? encode(out -> ModelJson.changes(out, set))
+                    : toJson(gson, set).getBytes(StandardCharsets.UTF_8);
+            Delta delta = new Delta(next, body);
+            deltas.put(key, delta);
+            return delta;
         }
+    }
+
+    // ---------------- STATS HANDLER ----------------
+    static class StatsHandler implements Router.Route {
+        private final BookDAO bookDao;
+        private final CustomerWriteBehind customerWriteBehind;
+        private final AdmissionFilter admission;
+        private final RateLimiter[] loginLimiters;
+        private final Gson gson = GSON;
 
-        private void sendResponse(HttpExchange exchange, String response, int code) throws IOException {
-            byte[] bytes = response.getBytes();
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.sendResponseHeaders(code, bytes.length);
-            exchange.getResponseBody().write(bytes);
-            exchange.close();
+        StatsHandler(BookDAO bookDao, CustomerWriteBehind customerWriteBehind, AdmissionFilter admission,
+                     RateLimiter... loginLimiters) {
+            this.bookDao = bookDao;
+            this.customerWriteBehind = customerWriteBehind;
+            this.admission = admission;
+            this.loginLimiters = loginLimiters;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange, Router.Params params) throws IOException {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("pool", DBConnection.getPoolStats());
+            if (DBConnection.hasReplicas()) stats.put("reads", DBConnection.getReplicaStats());
+            Map<String, Object> requests = new LinkedHashMap<>();
+            requests.put("maxConcurrent", admission.getMaxConcurrent());
+            requests.put("inFlight", admission.getInFlight());
+            requests.put("admitted", admission.getAdmitted());
+            requests.put("rejected", admission.getRejected());
+            stats.put("requests", requests);
+            Map<String, Object> logins = new LinkedHashMap<>();
+            for (RateLimiter limiter : loginLimiters) {
+                Map<String, Object> byKey = new LinkedHashMap<>();
+                byKey.put("admitted", limiter.getAdmitted());
+                byKey.put("rejected", limiter.getRejected());
+                byKey.put("trackedKeys", limiter.getTrackedKeys());
+                byKey.put("overflow", limiter.getOverflow());
+                byKey.put("evicted", limiter.getEvicted());
+                logins.put(limiter.getName(), byKey);
+            }
+            logins.put("unknownEmails", UserDAO.unknownEmailStats());
+            stats.put("logins", logins);
+            if (bookDao instanceof CachedBookDAO) {
+                CachedBookDAO cached = (CachedBookDAO) bookDao;
+                Map<String, Object> cache = new LinkedHashMap<>();
+                cache.put("byId", cached.byIdStats());
+                cache.put("pages", cached.pageStats());
+                cache.put("list", cached.listStats());
+                stats.put("bookCache", cache);
+            }
+            if (customerWriteBehind != null) {
+                Map<String, Object> writeBehind = new LinkedHashMap<>();
+                writeBehind.put("pending", customerWriteBehind.getPending());
+                writeBehind.put("journaled", customerWriteBehind.getJournaled());
+                writeBehind.put("flushed", customerWriteBehind.getFlushed());
+                writeBehind.put("flushFailures", customerWriteBehind.getFlushFailures());
+                writeBehind.put("deadLettered", customerWriteBehind.getDeadLettered());
+                writeBehind.put("turnedAway", customerWriteBehind.getTurnedAway());
+                stats.put("customerWriteBehind", writeBehind);
+            }
+            sendJson(exchange, toJson(gson, stats), 200);
         }
     }
 
-    static class LoginHandler implements HttpHandler {
+    // ---------------- METRICS HANDLER ----------------
+    static class MetricsHandler implements Router.Route {
+        @Override
+        public void handle(HttpExchange exchange, Router.Params params) throws IOException {
+            byte[] bytes = Metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            Responses.send(exchange, 200, "text/plain; version=0.0.4; charset=utf-8", bytes, bytes.length);
+        }
+    }
+
+    // ---------------- AUTH HANDLERS ----------------
+    static class RegisterHandler implements Router.Route {
         private final UserDAO dao = new UserDAO();
-        private final Gson gson = new Gson();
+        private final Gson gson = GSON;
 
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            String method = exchange.getRequestMethod();
-            exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
-            exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "POST, OPTIONS");
-            exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type");
-
-            if (method.equalsIgnoreCase("OPTIONS")) {
-                exchange.sendResponseHeaders(204, -1);
+        public void handle(HttpExchange exchange, Router.Params params) throws IOException {
+            User user = gson.fromJson(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8), User.class);
+            if (user == null || user.getEmail() == null || user.getPassword() == null || user.getName() == null) {
+                Responses.error(exchange, 400, "Missing required fields");
+                return;
+            }
+            boolean success;
+            try {
+                success = dao.register(user);
+            } catch (PasswordHashing.BusyException e) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                Responses.error(exchange, 503, "Server busy, try again later");
                 return;
             }
+            if (success)
+                sendJson(exchange, "{\"message\":\"User registered successfully\"}", 201);
+            else
+                Responses.error(exchange, 400, "User registration failed");
+        }
+    }
 
-            if (method.equalsIgnoreCase("POST")) {
-                InputStreamReader reader = new InputStreamReader(exchange.getRequestBody());
-                User creds = gson.fromJson(reader, User.class);
+    static class LoginHandler implements Router.Route {
+        private final UserDAO dao = new UserDAO();
+        private final Gson gson = GSON;
+        private final SessionTokens sessions;
+        private final RateLimiter byIp;
+        private final RateLimiter byEmail;
+        private final boolean trustForwarded;
 
-                User user = dao.login(creds.getEmail(), creds.getPassword());
-                if (user != null)
-                    sendResponse(exchange, gson.toJson(user), 200);
-                else
-                    sendResponse(exchange, "{\"error\":\"Invalid email or password\"}", 401);
-            } else {
-                sendResponse(exchange, "{\"error\":\"Unsupported method\"}", 405);
+        LoginHandler(SessionTokens sessions, RateLimiter byIp, RateLimiter byEmail, boolean trustForwarded) {
+            this.sessions = sessions;
+            this.byIp = byIp;
+            this.byEmail = byEmail;
+            this.trustForwarded = trustForwarded;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange, Router.Params params) throws IOException {
+            User creds = gson.fromJson(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8), User.class);
+            if (creds == null || creds.getEmail() == null || creds.getPassword() == null) {
+                Responses.error(exchange, 400, "Missing required fields");
+                return;
+            }
+
+            // Checked before any query or hash so a credential-stuffing burst costs almost nothing.
+            long waitMs = byIp.tryAcquire(clientAddress(exchange));
+            if (waitMs == 0) waitMs = byEmail.tryAcquire(creds.getEmail().trim().toLowerCase(Locale.ROOT));
+            if (waitMs > 0) {
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf((waitMs + 999) / 1000));
+                Responses.error(exchange, 429, "Too many login attempts, try again later");
+                return;
             }
+
+            User user;
+            try {
+                user = dao.login(creds.getEmail(), creds.getPassword());
+            } catch (PasswordHashing.BusyException e) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                Responses.error(exchange, 503, "Server busy, try again later");
+                return;
+            }
+            if (user != null)
+                sendJson(exchange, toJson(gson, sessionBody(sessions, user.getId(), user)), 200);
+            else
+                Responses.error(exchange, 401, "Invalid email or password");
         }
 
-        private void sendResponse(HttpExchange exchange, String response, int code) throws IOException {
-            byte[] bytes = response.getBytes();
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.sendResponseHeaders(code, bytes.length);
-            exchange.getResponseBody().write(bytes);
-            exchange.close();
+        private String clientAddress(HttpExchange exchange) {
+            if (trustForwarded) {
+                String forwarded = exchange.getRequestHeaders().getFirst("X-Forwarded-For");
+                if (forwarded != null && !forwarded.isBlank()) {
+                    int comma = forwarded.indexOf(',');
+                    return (comma < 0 ? forwarded : forwarded.substring(0, comma)).trim();
+                }
+            }
+            return exchange.getRemoteAddress().getAddress().getHostAddress();
         }
     }
 
-}
+    /** Login response: the user's public fields plus a fresh session token. */
+    static Map<String, Object> sessionBody(SessionTokens sessions, int userId, User user) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        if (user != null) {
+            body.put("id", user.getId());
+            body.put("name", user.getName());
+            body.put("email", user.getEmail());
+        }
+        body.put("token", sessions.issue(userId));
+        body.put("expiresIn", sessions.getTtlMs() / 1000);
+        return body;
+    }
 
+    // POST /api/session/refresh swaps a valid token for a new one, DELETE /api/session logs out.
+    static class SessionHandler {
+        private final SessionTokens sessions;
+        private final Gson gson = GSON;
 
+        SessionHandler(SessionTokens sessions) {
+            this.sessions = sessions;
+        }
+
+        void routes(Router.Scope scope) {
+            scope.post("/api/session/refresh", this::refresh)
+                    .delete("/api/session", this::logout);
+        }
+
+        private void refresh(HttpExchange exchange, Router.Params params) throws IOException {
+            SessionTokens.Session session = verify(exchange);
+            if (session == null || !revoke(exchange, session)) return;
+            sendJson(exchange, toJson(gson, sessionBody(sessions, session.getUserId(), null)), 200);
+        }
+
+        private void logout(HttpExchange exchange, Router.Params params) throws IOException {
+            SessionTokens.Session session = verify(exchange);
+            if (session == null || !revoke(exchange, session)) return;
+            sendJson(exchange, "{\"message\":\"Logged out\"}", 200);
+        }
+
+        private boolean revoke(HttpExchange exchange, SessionTokens.Session session) throws IOException {
+            if (sessions.revoke(session)) return true;
+            exchange.getResponseHeaders().set("Retry-After", "60");
+            Responses.error(exchange, 503, "Too many revoked sessions, try again later");
+            return false;
+        }
+
+        private SessionTokens.Session verify(HttpExchange exchange) throws IOException {
+            SessionTokens.Session session = sessions.verify(AuthFilter.bearer(exchange));
+            if (session == null) Responses.error(exchange, 401, "Login required");
+            return session;
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+package dao;
+
+import model.BatchItemResult;
+import util.DBConnection;
+import util.LatencyHistogram;
+import util.Metrics;
+
+import java.sql.Connection;
+import java.sql.DataTruncation;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Applies a stream of rows with JDBC batching inside one transaction.
+ * Rows are sent in chunks of chunkSize, so only one chunk is buffered at a
+ * time however long the input is. Nothing is visible until commit(); closing
+ * without commit rolls everything back.
+ */
+public class BatchWriter<T> implements AutoCloseable {
+    private static final LatencyHistogram TIME_FLUSH = Metrics.daoHistogram("batch", "flush");
+    private static final LatencyHistogram TIME_COMMIT = Metrics.daoHistogram("batch", "commit");
+
+    @FunctionalInterface
+    public interface Binder<T> {
+        void bind(PreparedStatement ps, T item) throws SQLException;
+    }
+
+    @FunctionalInterface
+    public interface IdOf<T> {
+        int id(T item);
+    }
+
+    private final Connection conn;
+    private final PreparedStatement ps;
+    private final Binder<T> binder;
+    private final IdOf<T> idOf;
+    private final boolean generatedKeys;
+    private final int chunkSize;
+    private final Consumer<List<Integer>> onCommit;
+
+    private final List<T> pending = new ArrayList<>();
+    private final List<Integer> pendingIndexes = new ArrayList<>();
+    private final List<BatchItemResult> results = new ArrayList<>();
+    private final List<Integer> appliedIds = new ArrayList<>();
+    private int nextIndex;
+    private int applied;
+    private boolean committed;
+
+    BatchWriter(String sql, Binder<T> binder, IdOf<T> idOf, boolean generatedKeys, int chunkSize, Consumer<List<Integer>> onCommit) throws SQLException {
+        this.binder = binder;
+        this.idOf = idOf;
+        this.generatedKeys = generatedKeys;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.onCommit = onCommit;
+        this.conn = DBConnection.getConnection();
+        try {
+            conn.setAutoCommit(false);
+            this.ps = generatedKeys
+                    ? conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)
+                    : conn.prepareStatement(sql);
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+    }
+
+    public void add(T item) throws SQLException {
+        binder.bind(ps, item);
+        ps.addBatch();
+        pending.add(item);
+        pendingIndexes.add(nextIndex++);
+        if (pending.size() >= chunkSize) flush();
+    }
+
+    /** Records an item that failed validation; it keeps its position in the results. */
+    public void reject(String error) {
+        results.add(new BatchItemResult(nextIndex++, "invalid", null, error));
+    }
+
+    private void flush() throws SQLException {
+        long start = Metrics.daoStart();
+        try {
+            if (pending.isEmpty()) return;
+            int[] counts = ps.executeBatch();
+            ResultSet keys = generatedKeys ? ps.getGeneratedKeys() : null;
+            try {
+                for (int i = 0; i < pending.size(); i++) {
+                    int count = i < counts.length ? counts[i] : Statement.SUCCESS_NO_INFO;
+                    int index = pendingIndexes.get(i);
+                    if (count == 0) {
+                        results.add(new BatchItemResult(index, "not_found", idOf.id(pending.get(i)), null));
+                        continue;
+                    }
+                    Integer id = idOf.id(pending.get(i));
+                    if (keys != null && keys.next()) id = keys.getInt(1);
+                    results.add(new BatchItemResult(index, "ok", id == 0 ? null : id, null));
+                    if (id != 0) appliedIds.add(id);
+                    applied++;
+                }
+            } finally {
+                if (keys != null) keys.close();
+            }
+            ps.clearBatch();
+            pending.clear();
+            pendingIndexes.clear();
+        } finally {
+            Metrics.daoEnd(TIME_FLUSH, start);
+        }
+    }
+
+    public void commit() throws SQLException {
+        long start = Metrics.daoStart();
+        try {
+            flush();
+            conn.commit();
+            committed = true;
+            onCommit.accept(appliedIds);
+        } finally {
+            Metrics.daoEnd(TIME_COMMIT, start);
+        }
+    }
+
+    public List<BatchItemResult> getResults() {
+        results.sort(Comparator.comparingInt(BatchItemResult::getIndex));
+        return results;
+    }
+    public int getApplied() { return applied; }
+    public int getFailed() { return results.size() - applied; }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            if (!committed) conn.rollback();
+        } finally {
+            try { ps.close(); } finally { conn.close(); }
+        }
+    }
+
+    /**
+     * Constraint and data errors, possibly wrapped in a BatchUpdateException.
+     * Retrying those cannot succeed, so callers that fall back to one row at a
+     * time set such rows aside; any other error means the database itself is
+     * in trouble.
+     */
+    static boolean refusedByDatabase(SQLException e) {
+        Throwable t = e;
+        while (t != null) {
+            if (t instanceof SQLIntegrityConstraintViolationException || t instanceof SQLDataException
+                    || t instanceof DataTruncation) {
+                return true;
+            }
+            Throwable next = t.getCause();
+            if (next == null && t instanceof SQLException) next = ((SQLException) t).getNextException();
+            t = next == t ? null : next;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,14 @@
+package dao;
+
+import java.util.Collection;
+
+/** Notified after rows in the books table were written. Ids of deleted rows are included. */
+@FunctionalInterface
+public interface BookChangeListener {
+    void booksChanged(Collection<Integer> ids);
+
+    /** Only the stock column moved, through a purchase. */
+    default void stockChanged(Collection<Integer> ids) {
+        booksChanged(ids);
+    }
+}
@@ -1,66 +1,412 @@
 package dao;
 
 import model.Book;
+import model.BookPatch;
+import model.OrderLine;
+import model.Page;
+import model.PurchaseResult;
+import model.UpdateResult;
 import util.DBConnection;
+import util.LatencyHistogram;
+import util.Metrics;
+import util.PageToken;
+import java.io.IOException;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class BookDAO {
-    public List<Book> getAll() {
-        List<Book> list = new ArrayList<>();
-        String sql = "SELECT * FROM books";
-        try (Connection conn = DBConnection.getConnection();
-             Statement st = conn.createStatement();
-             ResultSet rs = st.executeQuery(sql)) {
-            while (rs.next()) {
-                list.add(new Book(
-                    rs.getInt("id"),
-                    rs.getString("title"),
-                    rs.getString("author"),
-                    rs.getDouble("price"),
-                    rs.getInt("stock")
-                ));
+    private static final String COLUMNS = "id, title, author, price, stock, version";
+    private static final AtomicLong GENERATION = new AtomicLong();
+    private static final List<BookChangeListener> LISTENERS = new CopyOnWriteArrayList<>();
+    private static final LatencyHistogram TIME_GET_ALL = Metrics.daoHistogram("book", "getAll");
+    private static final LatencyHistogram TIME_GET_BY_ID = Metrics.daoHistogram("book", "getById");
+    private static final LatencyHistogram TIME_GET_BY_IDS = Metrics.daoHistogram("book", "getByIds");
+    private static final LatencyHistogram TIME_GET_PAGE = Metrics.daoHistogram("book", "getPage");
+    private static final LatencyHistogram TIME_STREAM_ALL = Metrics.daoHistogram("book", "streamAll");
+    private static final LatencyHistogram TIME_UPDATE = Metrics.daoHistogram("book", "update");
+    private static final LatencyHistogram TIME_PATCH = Metrics.daoHistogram("book", "patch");
+    private static final LatencyHistogram TIME_DELETE = Metrics.daoHistogram("book", "delete");
+    private static final LatencyHistogram TIME_ADD = Metrics.daoHistogram("book", "add");
+    private static final LatencyHistogram TIME_PURCHASE = Metrics.daoHistogram("book", "purchase");
+
+    private final boolean replicaReads;
+
+    public BookDAO() {
+        this(true);
+    }
+
+    /**
+     * With replicaReads false, list reads go to the primary too. Use it when
+     * the result is cached under the catalog generation: a lagging replica's
+     * rows would otherwise be pinned under a generation that includes writes
+     * they do not show.
+     */
+    public BookDAO(boolean replicaReads) {
+        this.replicaReads = replicaReads;
+    }
+
+    /** Bumped after every write to the books table; lets readers tell whether derived data is stale. */
+    public static long catalogGeneration() {
+        return GENERATION.get();
+    }
+
+    public static void addChangeListener(BookChangeListener listener) {
+        LISTENERS.add(listener);
+    }
+
+    /**
+     * Runs after a write commits and before the generation moves. Caches built
+     * on this DAO drop their entries here, so no reader can see the new
+     * generation while stale entries are still cached.
+     */
+    protected void invalidate(Collection<Integer> ids) {
+    }
+
+    protected void changed(Collection<Integer> ids) {
+        invalidate(ids);
+        GENERATION.incrementAndGet();
+        ChangeLog.get().record(ChangeLog.Entity.BOOK, ids);
+        for (BookChangeListener listener : LISTENERS) {
+            try {
+                listener.booksChanged(ids);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
             }
-        } catch (SQLException e) { e.printStackTrace(); }
-        return list;
+        }
     }
 
-    public void update(Book b) {
-        String sql = "UPDATE books SET title=?, author=?, price=?, stock=? WHERE id=?";
-        try (Connection conn = DBConnection.getConnection();
-            PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, b.getTitle());
-            ps.setString(2, b.getAuthor());
-            ps.setDouble(3, b.getPrice());
-            ps.setInt(4, b.getStock());
-            ps.setInt(5, b.getId());
-            ps.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
+    protected void stockChanged(Collection<Integer> ids) {
+        invalidate(ids);
+        GENERATION.incrementAndGet();
+        ChangeLog.get().record(ChangeLog.Entity.BOOK, ids);
+        for (BookChangeListener listener : LISTENERS) {
+            try {
+                listener.stockChanged(ids);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** Connection for list reads, which tolerate replica lag unless disabled. Reads that must see writes use the primary. */
+    private Connection readConnection() {
+        return replicaReads ? DBConnection.getReadConnection() : DBConnection.getConnection();
+    }
+
+    public List<Book> getAll() throws SQLException {
+        long start = Metrics.daoStart();
+        try {
+            List<Book> list = new ArrayList<>();
+            String sql = "SELECT * FROM books";
+            try (Connection conn = readConnection();
+                 Statement st = conn.createStatement();
+                 ResultSet rs = st.executeQuery(sql)) {
+                while (rs.next()) {
+                    list.add(map(rs));
+                }
+            }
+            return list;
+        } finally {
+            Metrics.daoEnd(TIME_GET_ALL, start);
+        }
+    }
+
+    public Book getById(int id) {
+        long start = Metrics.daoStart();
+        try {
+            String sql = "SELECT id, title, author, price, stock, version FROM books WHERE id=?";
+            try (Connection conn = DBConnection.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setInt(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) return map(rs);
+                }
+            } catch (SQLException e) { e.printStackTrace(); }
+            return null;
+        } finally {
+            Metrics.daoEnd(TIME_GET_BY_ID, start);
+        }
+    }
+
+    public List<Book> getByIds(Collection<Integer> ids) throws SQLException {
+        long start = Metrics.daoStart();
+        try {
+            List<Book> list = new ArrayList<>(ids.size());
+            List<Integer> pending = new ArrayList<>(ids);
+            for (int from = 0; from < pending.size(); from += 500) {
+                List<Integer> slice = pending.subList(from, Math.min(from + 500, pending.size()));
+                String sql = "SELECT id, title, author, price, stock, version FROM books WHERE id IN ("
+                        + String.join(",", Collections.nCopies(slice.size(), "?")) + ")";
+                try (Connection conn = DBConnection.getConnection();
+                     PreparedStatement ps = conn.prepareStatement(sql)) {
+                    for (int i = 0; i < slice.size(); i++) ps.setInt(i + 1, slice.get(i));
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) list.add(map(rs));
+                    }
+                }
+            }
+            return list;
+        } finally {
+            Metrics.daoEnd(TIME_GET_BY_IDS, start);
+        }
+    }
+
+    public Page<Book> getPage(int afterId, int limit) throws SQLException {
+        long start = Metrics.daoStart();
+        try {
+            List<Book> list = new ArrayList<>(limit);
+            String next = null;
+            String sql = "SELECT id, title, author, price, stock, version FROM books WHERE id > ? ORDER BY id LIMIT ?";
+            try (Connection conn = readConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setInt(1, afterId);
+                ps.setInt(2, limit + 1);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        if (list.size() == limit) {
+                            next = PageToken.encode(list.get(limit - 1).getId());
+                            break;
+                        }
+                        list.add(map(rs));
+                    }
+                }
+            }
+            return new Page<>(list, next);
+        } finally {
+            Metrics.daoEnd(TIME_GET_PAGE, start);
+        }
+    }
+
+    /** Streams every book to the sink without materialising the table in memory. Exports are never cached, so this may read a replica. */
+    public void streamAll(RowSink<Book> sink) throws SQLException, IOException {
+        long start = Metrics.daoStart();
+        try {
+            String sql = "SELECT id, title, author, price, stock, version FROM books ORDER BY id";
+            try (Connection conn = DBConnection.getReadConnection();
+                 PreparedStatement ps = DBConnection.prepareStreaming(conn, sql);
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Book row = map(rs);
+                    long pause = Metrics.daoPause();
+                    try {
+                        sink.accept(row);
+                    } finally {
+                        Metrics.daoResume(pause);
+                    }
+                }
+            }
+        } finally {
+            Metrics.daoEnd(TIME_STREAM_ALL, start);
+        }
+    }
+
+    private Book map(ResultSet rs) throws SQLException {
+        Book b = new Book(
+            rs.getInt("id"),
+            rs.getString("title"),
+            rs.getString("author"),
+            rs.getDouble("price"),
+            rs.getInt("stock")
+        );
+        b.setVersion(rs.getInt("version"));
+        return b;
+    }
+
+    /** Rewrites the whole row, but only if it is still at b's version (when b carries one). */
+    public UpdateResult<Book> update(Book b) throws SQLException {
+        long start = Metrics.daoStart();
+        try {
+            Map<String, Object> set = new LinkedHashMap<>();
+            set.put("title", b.getTitle());
+            set.put("author", b.getAuthor());
+            set.put("price", b.getPrice());
+            set.put("stock", b.getStock());
+            UpdateResult<Book> result = VersionedUpdate.apply("books", COLUMNS, set, b.getId(), b.getVersion(), this::map);
+            if (result.isUpdated()) changed(List.of(b.getId()));
+            return result;
+        } finally {
+            Metrics.daoEnd(TIME_UPDATE, start);
+        }
+    }
+
+    /** Writes only the fields present in the patch, so a stock change does not rewrite title and author. */
+    public UpdateResult<Book> patch(int id, BookPatch patch) throws SQLException {
+        long start = Metrics.daoStart();
+        try {
+            Map<String, Object> set = new LinkedHashMap<>();
+            if (patch.getTitle() != null) set.put("title", patch.getTitle());
+            if (patch.getAuthor() != null) set.put("author", patch.getAuthor());
+            if (patch.getPrice() != null) set.put("price", patch.getPrice());
+            if (patch.getStock() != null) set.put("stock", patch.getStock());
+            int expected = patch.getVersion() == null ? 0 : patch.getVersion();
+            UpdateResult<Book> result = VersionedUpdate.apply("books", COLUMNS, set, id, expected, this::map);
+            if (result.isUpdated()) changed(List.of(id));
+            return result;
+        } finally {
+            Metrics.daoEnd(TIME_PATCH, start);
         }
     }
 
     public void delete(int id) {
-        String sql = "DELETE FROM books WHERE id=?";
-        try (Connection conn = DBConnection.getConnection();
-            PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, id);
-            ps.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
+        long start = Metrics.daoStart();
+        try {
+            String sql = "DELETE FROM books WHERE id=?";
+            try (Connection conn = DBConnection.getConnection();
+                PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setInt(1, id);
+                if (ps.executeUpdate() > 0) changed(List.of(id));
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        } finally {
+            Metrics.daoEnd(TIME_DELETE, start);
         }
     }
 
 
     public void add(Book b) {
+        long start = Metrics.daoStart();
+        try {
+            String sql = "INSERT INTO books (title, author, price, stock) VALUES (?, ?, ?, ?)";
+            try (Connection conn = DBConnection.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                ps.setString(1, b.getTitle());
+                ps.setString(2, b.getAuthor());
+                ps.setDouble(3, b.getPrice());
+                ps.setInt(4, b.getStock());
+                ps.executeUpdate();
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    if (keys.next()) {
+                        b.setId(keys.getInt(1));
+                        changed(List.of(b.getId()));
+                    }
+                }
+            } catch (SQLException e) { e.printStackTrace(); }
+        } finally {
+            Metrics.daoEnd(TIME_ADD, start);
+        }
+    }
+
+    public BatchWriter<Book> batchAdd(int chunkSize) throws SQLException {
         String sql = "INSERT INTO books (title, author, price, stock) VALUES (?, ?, ?, ?)";
-        try (Connection conn = DBConnection.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+        return new BatchWriter<>(sql, (ps, b) -> {
             ps.setString(1, b.getTitle());
             ps.setString(2, b.getAuthor());
             ps.setDouble(3, b.getPrice());
             ps.setInt(4, b.getStock());
-            ps.executeUpdate();
-        } catch (SQLException e) { e.printStackTrace(); }
+        }, Book::getId, true, chunkSize, this::afterBatch);
+    }
+
+    public BatchWriter<Book> batchUpdate(int chunkSize) throws SQLException {
+        String sql = "UPDATE books SET title=?, author=?, price=?, stock=?, version=version+1 WHERE id=?";
+        return new BatchWriter<>(sql, (ps, b) -> {
+            ps.setString(1, b.getTitle());
+            ps.setString(2, b.getAuthor());
+            ps.setDouble(3, b.getPrice());
+            ps.setInt(4, b.getStock());
+            ps.setInt(5, b.getId());
+        }, Book::getId, false, chunkSize, this::afterBatch);
     }
+
+    public BatchWriter<Integer> batchDelete(int chunkSize) throws SQLException {
+        String sql = "DELETE FROM books WHERE id=?";
+        return new BatchWriter<>(sql, (ps, id) -> ps.setInt(1, id), id -> id, false, chunkSize, this::afterBatch);
+    }
+
+    protected void afterBatch(Collection<Integer> ids) {
+        changed(ids);
+    }
+
+
+    /**
+     * Takes stock for every line of an order in one transaction, or for none.
+     * Each decrement is a conditional UPDATE, so two cashiers selling the last
+     * copy cannot both succeed. Lines are applied in id order so concurrent
+     * orders lock rows in the same sequence and cannot deadlock. The optional
+     * counters turn away orders they know cannot be filled before any row is
+     * locked.
+     */
+    public PurchaseResult purchase(List<OrderLine> order, StockCounters counters) throws SQLException {
+        long start = Metrics.daoStart();
+        try {
+            TreeMap<Integer, Integer> wanted = new TreeMap<>();
+            for (OrderLine line : order) wanted.merge(line.getBookId(), line.getQuantity(), Integer::sum);
+
+            Map<Integer, StockCounters.Counter> reserved = new HashMap<>();
+            Set<Integer> failed = new HashSet<>();
+            boolean committed = false;
+            try {
+                if (counters != null) {
+                    for (Map.Entry<Integer, Integer> e : wanted.entrySet()) {
+                        StockCounters.Counter counter = counters.reserve(e.getKey(), e.getValue());
+                        if (counter == null) failed.add(e.getKey());
+                        else reserved.put(e.getKey(), counter);
+                    }
+                }
+                if (failed.isEmpty()) {
+                    String sql = "UPDATE books SET stock = stock - ?, version = version + 1 WHERE id = ? AND stock >= ?";
+                    try (Connection conn = DBConnection.getConnection();
+                         PreparedStatement ps = conn.prepareStatement(sql)) {
+                        conn.setAutoCommit(false);
+                        for (Map.Entry<Integer, Integer> e : wanted.entrySet()) {
+                            ps.setInt(1, e.getValue());
+                            ps.setInt(2, e.getKey());
+                            ps.setInt(3, e.getValue());
+                            if (ps.executeUpdate() == 0) {
+                                failed.add(e.getKey());
+                                if (counters != null) counters.forget(e.getKey());
+                            }
+                        }
+                        if (failed.isEmpty()) {
+                            conn.commit();
+                            committed = true;
+                        } else {
+                            conn.rollback();
+                        }
+                    }
+                }
+            } finally {
+                if (!committed && counters != null) {
+                    for (Map.Entry<Integer, StockCounters.Counter> e : reserved.entrySet()) {
+                        counters.release(e.getValue(), wanted.get(e.getKey()));
+                    }
+                }
+            }
+
+            if (committed) stockChanged(wanted.keySet());
+
+            Map<Integer, Integer> available = committed ? Map.of() : currentStock(wanted.keySet());
+            List<PurchaseResult.Line> lines = new ArrayList<>();
+            for (Map.Entry<Integer, Integer> e : wanted.entrySet()) {
+                Integer stock = available.get(e.getKey());
+                String status;
+                if (committed) status = "purchased";
+                else if (stock == null) status = "not_found";
+                else if (failed.contains(e.getKey()) || stock < e.getValue()) status = "out_of_stock";
+                else status = "available";
+                lines.add(new PurchaseResult.Line(e.getKey(), e.getValue(), status, available.get(e.getKey())));
+            }
+            return new PurchaseResult(committed, lines);
+        } finally {
+            Metrics.daoEnd(TIME_PURCHASE, start);
+        }
+    }
+
+    private Map<Integer, Integer> currentStock(Collection<Integer> ids) throws SQLException {
+        Map<Integer, Integer> stock = new HashMap<>();
+        String sql = "SELECT id, stock FROM books WHERE id IN ("
+                + String.join(",", Collections.nCopies(ids.size(), "?")) + ")";
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            int i = 1;
+            for (Integer id : ids) ps.setInt(i++, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) stock.put(rs.getInt(1), rs.getInt(2));
+            }
+        }
+        return stock;
+    }
+
 }
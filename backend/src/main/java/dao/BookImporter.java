@@ -0,0 +1,285 @@
+package dao;
+
+import model.Book;
+import model.ImportProgress;
+import util.CsvReader;
+import util.DBConnection;
+import util.LatencyHistogram;
+import util.Metrics;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Imports a CSV feed of books (header: title,author,price,stock and an
+ * optional id) while it is still being uploaded. The calling thread parses
+ * and validates rows into chunks; a writer thread upserts each chunk in its
+ * own transaction. A bounded queue between them pushes back on the upload
+ * when the database falls behind. When the database rejects a chunk, its
+ * rows are retried one at a time, so only the offending lines are reported
+ * and the rest are still imported.
+ */
+public class BookImporter {
+    private static final LatencyHistogram TIME_CHUNK = Metrics.daoHistogram("importer", "writeChunk");
+    private static final Map<String, ImportProgress> RUNNING = new ConcurrentHashMap<>();
+    private static final Chunk END = new Chunk(Collections.emptyList(), Collections.emptyList());
+
+    private static final String INSERT_SQL = "INSERT INTO books (title, author, price, stock) VALUES (?, ?, ?, ?)";
+    private static final String UPSERT_SQL = "INSERT INTO books (id, title, author, price, stock) VALUES (?, ?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE title=VALUES(title), author=VALUES(author), price=VALUES(price), stock=VALUES(stock), "
+            + "version=version+1";
+
+    private final BookDAO dao;
+    private final int chunkSize;
+    private final int queueChunks;
+    private final int maxErrors;
+
+    public BookImporter(BookDAO dao, int chunkSize, int queueChunks, int maxErrors) {
+        this.dao = dao;
+        this.chunkSize = chunkSize;
+        this.queueChunks = queueChunks;
+        this.maxErrors = maxErrors;
+    }
+
+    public static List<ImportProgress> running() {
+        return new ArrayList<>(RUNNING.values());
+    }
+
+    public ImportProgress run(Reader csv) throws IOException {
+        CsvReader reader = new CsvReader(csv);
+        List<String> header = reader.next();
+        if (header == null) throw new IllegalArgumentException("CSV is empty");
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            columns.put(header.get(i).trim().toLowerCase(), i);
+        }
+        for (String required : new String[] { "title", "author", "price", "stock" }) {
+            if (!columns.containsKey(required)) throw new IllegalArgumentException("CSV header is missing column: " + required);
+        }
+
+        ImportProgress progress = new ImportProgress(UUID.randomUUID().toString(), maxErrors);
+        RUNNING.put(progress.getJobId(), progress);
+        BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(queueChunks);
+        Writer writer = new Writer(queue, progress);
+        Thread writerThread = new Thread(writer, "book-import-" + progress.getJobId().substring(0, 8));
+        writerThread.start();
+
+        try {
+            List<Book> books = new ArrayList<>(chunkSize);
+            List<Long> lines = new ArrayList<>(chunkSize);
+            List<String> record;
+            while ((record = reader.next()) != null && writer.failure == null) {
+                progress.rowRead();
+                long line = reader.getRecordLine();
+                Book book;
+                try {
+                    book = toBook(record, columns);
+                } catch (IllegalArgumentException e) {
+                    progress.failed(1);
+                    progress.addError(line, e.getMessage());
+                    continue;
+                }
+                books.add(book);
+                lines.add(line);
+                if (books.size() == chunkSize) {
+                    offer(queue, new Chunk(books, lines), writer);
+                    books = new ArrayList<>(chunkSize);
+                    lines = new ArrayList<>(chunkSize);
+                }
+            }
+            if (!books.isEmpty()) {
+                offer(queue, new Chunk(books, lines), writer);
+            }
+        } finally {
+            offer(queue, END, writer);
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            RUNNING.remove(progress.getJobId());
+        }
+
+        progress.finish(writer.failure == null ? "completed" : "aborted");
+        if (writer.failure != null) progress.addError(0, "Import aborted: " + writer.failure.getMessage());
+        return progress;
+    }
+
+    private void offer(BlockingQueue<Chunk> queue, Chunk chunk, Writer writer) {
+        try {
+            while (writer.alive && !queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                // wait for the writer to drain or die
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Book toBook(List<String> record, Map<String, Integer> columns) {
+        Book b = new Book();
+        String id = field(record, columns, "id");
+        if (id != null && !id.isEmpty()) {
+            b.setId(parseInt(id, "id"));
+            if (b.getId() <= 0) throw new IllegalArgumentException("id must be positive");
+        }
+        b.setTitle(field(record, columns, "title"));
+        b.setAuthor(field(record, columns, "author"));
+        if (b.getTitle() == null || b.getTitle().isEmpty()) throw new IllegalArgumentException("title is required");
+        if (b.getAuthor() == null || b.getAuthor().isEmpty()) throw new IllegalArgumentException("author is required");
+        String price = field(record, columns, "price");
+        try {
+            b.setPrice(Double.parseDouble(price == null ? "" : price));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("price is not a number: " + price);
+        }
+        if (!(b.getPrice() >= 0)) throw new IllegalArgumentException("price must not be negative");
+        b.setStock(parseInt(field(record, columns, "stock"), "stock"));
+        if (b.getStock() < 0) throw new IllegalArgumentException("stock must not be negative");
+        return b;
+    }
+
+    private static String field(List<String> record, Map<String, Integer> columns, String name) {
+        Integer index = columns.get(name);
+        return index == null || index >= record.size() ? null : record.get(index).trim();
+    }
+
+    private static int parseInt(String value, String name) {
+        try {
+            return Integer.parseInt(value == null ? "" : value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " is not a whole number: " + value);
+        }
+    }
+
+    private static final class Chunk {
+        final List<Book> books;
+        final List<Long> lines;
+
+        Chunk(List<Book> books, List<Long> lines) {
+            this.books = books;
+            this.lines = lines;
+        }
+    }
+
+    private final class Writer implements Runnable {
+        final BlockingQueue<Chunk> queue;
+        final ImportProgress progress;
+        volatile boolean alive = true;
+        volatile Exception failure;
+
+        Writer(BlockingQueue<Chunk> queue, ImportProgress progress) {
+            this.queue = queue;
+            this.progress = progress;
+        }
+
+        @Override
+        public void run() {
+            try (Connection conn = DBConnection.getConnection();
+                 PreparedStatement insert = conn.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS);
+                 PreparedStatement upsert = conn.prepareStatement(UPSERT_SQL)) {
+                conn.setAutoCommit(false);
+                while (true) {
+                    Chunk chunk = queue.take();
+                    if (chunk == END) break;
+                    long start = Metrics.daoStart();
+                    try {
+                        List<Integer> ids = write(chunk.books, insert, upsert);
+                        conn.commit();
+                        progress.imported(chunk.books.size());
+                        dao.afterBatch(ids);
+                    } catch (SQLException e) {
+                        rollback(conn, insert, upsert);
+                        writeOneByOne(conn, chunk, insert, upsert);
+                    } finally {
+                        Metrics.daoEnd(TIME_CHUNK, start);
+                    }
+                }
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                alive = false;
+                queue.clear();
+            }
+        }
+
+        /**
+         * Finds the rows that failed the chunk. A row the database refuses is
+         * reported against its line; any other error, such as a lost
+         * connection, aborts the import.
+         */
+        private void writeOneByOne(Connection conn, Chunk chunk, PreparedStatement insert, PreparedStatement upsert)
+                throws SQLException {
+            List<Integer> ids = new ArrayList<>();
+            try {
+                for (int i = 0; i < chunk.books.size(); i++) {
+                    try {
+                        ids.addAll(write(List.of(chunk.books.get(i)), insert, upsert));
+                        conn.commit();
+                        progress.imported(1);
+                    } catch (SQLException e) {
+                        rollback(conn, insert, upsert);
+                        if (!BatchWriter.refusedByDatabase(e)) throw e;
+                        progress.failed(1);
+                        progress.addError(chunk.lines.get(i), "Rejected by database: " + e.getMessage());
+                    }
+                }
+            } finally {
+                if (!ids.isEmpty()) dao.afterBatch(ids);
+            }
+        }
+
+        private void rollback(Connection conn, PreparedStatement insert, PreparedStatement upsert) throws SQLException {
+            conn.rollback();
+            insert.clearBatch();
+            upsert.clearBatch();
+        }
+
+        private List<Integer> write(List<Book> chunk, PreparedStatement insert, PreparedStatement upsert) throws SQLException {
+            List<Integer> ids = new ArrayList<>(chunk.size());
+            boolean inserts = false;
+            boolean upserts = false;
+            for (Book b : chunk) {
+                if (b.getId() > 0) {
+                    ids.add(b.getId());
+                    upsert.setInt(1, b.getId());
+                    upsert.setString(2, b.getTitle());
+                    upsert.setString(3, b.getAuthor());
+                    upsert.setDouble(4, b.getPrice());
+                    upsert.setInt(5, b.getStock());
+                    upsert.addBatch();
+                    upserts = true;
+                } else {
+                    insert.setString(1, b.getTitle());
+                    insert.setString(2, b.getAuthor());
+                    insert.setDouble(3, b.getPrice());
+                    insert.setInt(4, b.getStock());
+                    insert.addBatch();
+                    inserts = true;
+                }
+            }
+            if (upserts) upsert.executeBatch();
+            if (inserts) {
+                insert.executeBatch();
+                try (ResultSet keys = insert.getGeneratedKeys()) {
+                    while (keys.next()) ids.add(keys.getInt(1));
+                }
+            }
+            return ids;
+        }
+    }
+}
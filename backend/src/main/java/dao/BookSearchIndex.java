@@ -0,0 +1,247 @@
+package dao;
+
+import model.Book;
+
+import java.sql.SQLException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over book titles and authors. Built once from the
+ * database and then kept current from BookDAO change notifications, so
+ * searches never touch MySQL. Changed rows are reloaded on a background
+ * thread, so a search may miss a write for the few milliseconds that takes.
+ *
+ * Every query token must match a title or author term, either exactly or as
+ * a prefix, which gives type-ahead for free. Title hits outrank author hits
+ * and exact terms outrank prefixes.
+ */
+public class BookSearchIndex implements BookChangeListener {
+    private static final int TITLE_EXACT = 6;
+    private static final int TITLE_PREFIX = 4;
+    private static final int AUTHOR_EXACT = 3;
+    private static final int AUTHOR_PREFIX = 2;
+    private static final long RETRY_MS = 1000;
+
+    public static class Result {
+        private final int total;
+        private final int offset;
+        private final List<Book> items;
+
+        Result(int total, int offset, List<Book> items) {
+            this.total = total;
+            this.offset = offset;
+            this.items = items;
+        }
+
+        public int getTotal() { return total; }
+        public int getOffset() { return offset; }
+        public List<Book> getItems() { return items; }
+    }
+
+    private final BookDAO source;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, Book> docs = new HashMap<>();
+    private final TreeMap<String, Set<Integer>> titleTerms = new TreeMap<>();
+    private final TreeMap<String, Set<Integer>> authorTerms = new TreeMap<>();
+    private final Set<Integer> dirty = new LinkedHashSet<>();
+    private boolean refreshScheduled;
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "search-index-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** The source must read the primary directly, not through a cache or a replica. */
+    public BookSearchIndex(BookDAO source) {
+        this.source = source;
+    }
+
+    public void rebuild() throws SQLException {
+        List<Book> all = source.getAll();
+        lock.writeLock().lock();
+        try {
+            docs.clear();
+            titleTerms.clear();
+            authorTerms.clear();
+            for (Book b : all) put(b);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Queues the ids for the refresher; writes never wait for the reload. */
+    @Override
+    public void booksChanged(Collection<Integer> ids) {
+        if (ids.isEmpty()) return;
+        synchronized (dirty) {
+            dirty.addAll(ids);
+            if (refreshScheduled) return;
+            refreshScheduled = true;
+        }
+        refresher.execute(this::refresh);
+    }
+
+    /**
+     * Reloads every queued id in one query. An id the query did not return is
+     * gone and is removed. If the query fails, the old documents stay and the
+     * ids are retried.
+     */
+    private void refresh() {
+        List<Integer> ids;
+        synchronized (dirty) {
+            ids = new ArrayList<>(dirty);
+            dirty.clear();
+        }
+        try {
+            List<Book> current = source.getByIds(ids);
+            Set<Integer> absent = new HashSet<>(ids);
+            lock.writeLock().lock();
+            try {
+                for (Book b : current) {
+                    absent.remove(b.getId());
+                    remove(b.getId());
+                    put(b);
+                }
+                for (Integer id : absent) remove(id);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (SQLException | RuntimeException e) {
+            System.out.println("❌ Search index refresh failed, retrying: " + e.getMessage());
+            synchronized (dirty) {
+                dirty.addAll(ids);
+            }
+            refresher.schedule(this::refresh, RETRY_MS, TimeUnit.MILLISECONDS);
+            return;
+        }
+        synchronized (dirty) {
+            if (dirty.isEmpty()) {
+                refreshScheduled = false;
+                return;
+            }
+        }
+        refresher.execute(this::refresh);
+    }
+
+    public Result search(String query, int offset, int limit) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty()) return new Result(0, offset, List.of());
+
+        List<Map.Entry<Book, Integer>> ranked = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            Map<Integer, Integer> scores = null;
+            for (String token : new LinkedHashSet<>(tokens)) {
+                Map<Integer, Integer> tokenScores = new HashMap<>();
+                collect(titleTerms, token, TITLE_EXACT, TITLE_PREFIX, tokenScores);
+                collect(authorTerms, token, AUTHOR_EXACT, AUTHOR_PREFIX, tokenScores);
+                if (scores == null) {
+                    scores = tokenScores;
+                } else {
+                    Map<Integer, Integer> merged = new HashMap<>();
+                    for (Map.Entry<Integer, Integer> e : scores.entrySet()) {
+                        Integer s = tokenScores.get(e.getKey());
+                        if (s != null) merged.put(e.getKey(), e.getValue() + s);
+                    }
+                    scores = merged;
+                }
+                if (scores.isEmpty()) break;
+            }
+            for (Map.Entry<Integer, Integer> e : scores.entrySet()) {
+                ranked.add(Map.entry(docs.get(e.getKey()), e.getValue()));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        ranked.sort((a, b) -> {
+            int byScore = Integer.compare(b.getValue(), a.getValue());
+            if (byScore != 0) return byScore;
+            int byTitle = String.CASE_INSENSITIVE_ORDER.compare(nullToEmpty(a.getKey().getTitle()), nullToEmpty(b.getKey().getTitle()));
+            return byTitle != 0 ? byTitle : Integer.compare(a.getKey().getId(), b.getKey().getId());
+        });
+
+        List<Book> page = new ArrayList<>();
+        for (int i = offset; i < ranked.size() && page.size() < limit; i++) {
+            page.add(ranked.get(i).getKey());
+        }
+        return new Result(ranked.size(), offset, page);
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void collect(TreeMap<String, Set<Integer>> terms, String token, int exact, int prefix,
+                                Map<Integer, Integer> scores) {
+        for (Map.Entry<String, Set<Integer>> e : terms.subMap(token, true, token + Character.MAX_VALUE, false).entrySet()) {
+            int score = e.getKey().length() == token.length() ? exact : prefix;
+            for (Integer id : e.getValue()) {
+                scores.merge(id, score, Math::max);
+            }
+        }
+    }
+
+    private void put(Book b) {
+        docs.put(b.getId(), b);
+        for (String term : tokenize(b.getTitle())) titleTerms.computeIfAbsent(term, k -> new HashSet<>()).add(b.getId());
+        for (String term : tokenize(b.getAuthor())) authorTerms.computeIfAbsent(term, k -> new HashSet<>()).add(b.getId());
+    }
+
+    private void remove(int id) {
+        Book old = docs.remove(id);
+        if (old == null) return;
+        unlink(titleTerms, tokenize(old.getTitle()), id);
+        unlink(authorTerms, tokenize(old.getAuthor()), id);
+    }
+
+    private static void unlink(TreeMap<String, Set<Integer>> terms, List<String> tokens, int id) {
+        for (String term : tokens) {
+            Set<Integer> postings = terms.get(term);
+            if (postings != null && postings.remove(id) && postings.isEmpty()) terms.remove(term);
+        }
+    }
+
+    /** Lower-cases, strips accents and splits on anything that is not a letter or digit. */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) return tokens;
+        String folded = Normalizer.normalize(text, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}+", "")
+                .toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean word = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                tokens.add(folded.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+}
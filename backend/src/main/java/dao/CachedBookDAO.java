@@ -0,0 +1,137 @@
+package dao;
+
+import model.Book;
+import model.Page;
+import util.CacheStats;
+import util.LruCache;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Read-through cache in front of BookDAO for list, page and by-id reads.
+ * Writes go to the database first and then drop exactly the entries they can
+ * affect. A load that raced with a write is never stored, so a node does not
+ * serve its own stale data.
+ */
+public class CachedBookDAO extends BookDAO {
+
+    private static final class PageKey {
+        final int afterId;
+        final int limit;
+
+        PageKey(int afterId, int limit) {
+            this.afterId = afterId;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PageKey)) return false;
+            PageKey k = (PageKey) o;
+            return afterId == k.afterId && limit == k.limit;
+        }
+
+        @Override
+        public int hashCode() { return Objects.hash(afterId, limit); }
+    }
+
+    /** Larger writes, such as batches, clear the caches instead of scanning the pages once per id. */
+    private static final int EVICT_BY_ID_MAX = 64;
+
+    private final LruCache<Integer, Book> byId;
+    private final LruCache<PageKey, Page<Book>> pages;
+    private final LruCache<Boolean, List<Book>> all;
+    private final Object lock = new Object();
+    private long writes;
+
+    /** Fills right after an invalidation must see the write, so this always reads the primary. */
+    public CachedBookDAO(int maxEntries, int maxPages, long ttlMs) {
+        super(false);
+        this.byId = new LruCache<>(maxEntries, ttlMs);
+        this.pages = new LruCache<>(maxPages, ttlMs);
+        this.all = new LruCache<>(1, ttlMs);
+    }
+
+    @Override
+    public List<Book> getAll() throws SQLException {
+        List<Book> cached = all.get(Boolean.TRUE);
+        if (cached != null) return cached;
+        long stamp = stamp();
+        List<Book> loaded = List.copyOf(super.getAll());
+        store(stamp, () -> all.put(Boolean.TRUE, loaded));
+        return loaded;
+    }
+
+    @Override
+    public Page<Book> getPage(int afterId, int limit) throws SQLException {
+        PageKey key = new PageKey(afterId, limit);
+        Page<Book> cached = pages.get(key);
+        if (cached != null) return cached;
+        long stamp = stamp();
+        Page<Book> page = super.getPage(afterId, limit);
+        Page<Book> loaded = new Page<>(List.copyOf(page.getItems()), page.getNext());
+        store(stamp, () -> pages.put(key, loaded));
+        return loaded;
+    }
+
+    @Override
+    public Book getById(int id) {
+        Book cached = byId.get(id);
+        if (cached != null) return cached;
+        long stamp = stamp();
+        Book loaded = super.getById(id);
+        if (loaded != null) store(stamp, () -> byId.put(id, loaded));
+        return loaded;
+    }
+
+    /** Called by BookDAO after the commit and before the generation moves, for every kind of write. */
+    @Override
+    protected void invalidate(Collection<Integer> ids) {
+        invalidate(() -> {
+            if (ids.isEmpty() || ids.size() > EVICT_BY_ID_MAX) {
+                byId.clear();
+                pages.clear();
+                return;
+            }
+            for (int id : ids) {
+                byId.remove(id);
+                // New rows get the highest id, so for inserts this only matches the open-ended last pages.
+                pages.removeIf((key, page) -> covers(key, page, id));
+            }
+        });
+    }
+
+    private static boolean covers(PageKey key, Page<Book> page, int id) {
+        if (id <= key.afterId) return false;
+        if (page.getNext() == null) return true;
+        List<Book> items = page.getItems();
+        return id <= items.get(items.size() - 1).getId();
+    }
+
+    private long stamp() {
+        synchronized (lock) {
+            return writes;
+        }
+    }
+
+    private void store(long stamp, Runnable put) {
+        synchronized (lock) {
+            if (writes == stamp) put.run();
+        }
+    }
+
+    private void invalidate(Runnable evict) {
+        synchronized (lock) {
+            writes++;
+            all.clear();
+            evict.run();
+        }
+    }
+
+    public CacheStats byIdStats() { return byId.stats(); }
+    public CacheStats pageStats() { return pages.stats(); }
+    public CacheStats listStats() { return all.stats(); }
+}
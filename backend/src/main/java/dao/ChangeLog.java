@@ -0,0 +1,116 @@
+package dao;
+
+import util.Config;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory record of which book and customer rows were written, in order.
+ * Entries hold only the entity and the id; readers load the current row
+ * when they need it, and treat a missing row as deleted. The log is a fixed
+ * ring of CHANGE_LOG_CAPACITY entries, so memory stays flat. A reader that
+ * falls further behind than that is told to start over instead of holding
+ * writers back.
+ *
+ * Sequence numbers start from the boot time in microseconds. A cursor kept
+ * across a restart is therefore older than anything in the new log, and
+ * the reader resynchronises.
+ */
+public class ChangeLog {
+    public enum Entity { BOOK, CUSTOMER }
+
+    public static final class Change {
+        private final long seq;
+        private final Entity entity;
+        private final int id;
+
+        Change(long seq, Entity entity, int id) {
+            this.seq = seq;
+            this.entity = entity;
+            this.id = id;
+        }
+
+        public long getSeq() { return seq; }
+        public Entity getEntity() { return entity; }
+        public int getId() { return id; }
+    }
+
+    private static final class Holder {
+        static final ChangeLog INSTANCE = new ChangeLog(Config.getInt("CHANGE_LOG_CAPACITY", 10000));
+    }
+
+    public static ChangeLog get() {
+        return Holder.INSTANCE;
+    }
+
+    private final Change[] ring;
+    private final long first;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private long last;
+
+    public ChangeLog(int capacity) {
+        this.ring = new Change[Math.max(1, capacity)];
+        this.first = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        this.last = first;
+    }
+
+    public void record(Entity entity, Collection<Integer> ids) {
+        if (ids.isEmpty()) return;
+        lock.lock();
+        try {
+            for (Integer id : ids) {
+                last++;
+                ring[(int) (last % ring.length)] = new Change(last, entity, id);
+            }
+            appended.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Sequence number of the newest change; a cursor at this value has seen everything. */
+    public long latest() {
+        lock.lock();
+        try {
+            return last;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Up to max changes after the cursor, oldest first. Returns null when the
+     * cursor is no longer covered by the log (too old, or from another boot).
+     */
+    public List<Change> after(long cursor, int max) {
+        lock.lock();
+        try {
+            long oldest = Math.max(first + 1, last - ring.length + 1);
+            if (cursor < oldest - 1 || cursor > last) return null;
+            long end = Math.min(last, cursor + max);
+            List<Change> changes = new ArrayList<>((int) (end - cursor));
+            for (long seq = cursor + 1; seq <= end; seq++) changes.add(ring[(int) (seq % ring.length)]);
+            return changes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Waits until something newer than the cursor is recorded, or the timeout passes. Returns latest(). */
+    public long await(long cursor, long timeoutMs) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        lock.lock();
+        try {
+            while (last <= cursor && remaining > 0) remaining = appended.awaitNanos(remaining);
+            return last;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
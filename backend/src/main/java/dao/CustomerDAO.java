@@ -1,67 +1,228 @@
 package dao;
 
 import model.Customer;
+import model.CustomerPatch;
+import model.Page;
+import model.UpdateResult;
 import util.DBConnection;
+import util.LatencyHistogram;
+import util.Metrics;
+import util.PageToken;
+import java.io.IOException;
 import java.sql.*;
 import java.util.*;
 
 public class CustomerDAO {
+    private static final String COLUMNS = "id, name, email, phone, version";
+    private static final LatencyHistogram TIME_ADD = Metrics.daoHistogram("customer", "addCustomer");
+    private static final LatencyHistogram TIME_GET_ALL = Metrics.daoHistogram("customer", "getAllCustomers");
+    private static final LatencyHistogram TIME_GET_BY_IDS = Metrics.daoHistogram("customer", "getByIds");
+    private static final LatencyHistogram TIME_GET_PAGE = Metrics.daoHistogram("customer", "getCustomersPage");
+    private static final LatencyHistogram TIME_STREAM_ALL = Metrics.daoHistogram("customer", "streamAllCustomers");
+    private static final LatencyHistogram TIME_UPDATE = Metrics.daoHistogram("customer", "updateCustomer");
+    private static final LatencyHistogram TIME_PATCH = Metrics.daoHistogram("customer", "patchCustomer");
+    private static final LatencyHistogram TIME_DELETE = Metrics.daoHistogram("customer", "deleteCustomer");
 
     public void addCustomer(Customer c) {
-        String sql = "INSERT INTO customers (name, email, phone) VALUES (?, ?, ?)";
-        try (Connection conn = DBConnection.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, c.getName());
-            ps.setString(2, c.getEmail());
-            ps.setString(3, c.getPhone());
-            ps.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
+        long start = Metrics.daoStart();
+        try {
+            String sql = "INSERT INTO customers (name, email, phone) VALUES (?, ?, ?)";
+            try (Connection conn = DBConnection.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                ps.setString(1, c.getName());
+                ps.setString(2, c.getEmail());
+                ps.setString(3, c.getPhone());
+                ps.executeUpdate();
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    if (keys.next()) {
+                        c.setId(keys.getInt(1));
+                        changed(List.of(c.getId()));
+                    }
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        } finally {
+            Metrics.daoEnd(TIME_ADD, start);
         }
     }
 
-    public List<Customer> getAllCustomers() {
-        List<Customer> list = new ArrayList<>();
-        String sql = "SELECT * FROM customers";
-        try (Connection conn = DBConnection.getConnection();
-             Statement st = conn.createStatement();
-             ResultSet rs = st.executeQuery(sql)) {
-            while (rs.next()) {
-                Customer c = new Customer();
-                c.setId(rs.getInt("id"));
-                c.setName(rs.getString("name"));
-                c.setEmail(rs.getString("email"));
-                c.setPhone(rs.getString("phone"));
-                list.add(c);
+    public List<Customer> getAllCustomers() throws SQLException {
+        long start = Metrics.daoStart();
+        try {
+            List<Customer> list = new ArrayList<>();
+            String sql = "SELECT * FROM customers";
+            try (Connection conn = DBConnection.getReadConnection();
+                 Statement st = conn.createStatement();
+                 ResultSet rs = st.executeQuery(sql)) {
+                while (rs.next()) {
+                    list.add(map(rs));
+                }
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            return list;
+        } finally {
+            Metrics.daoEnd(TIME_GET_ALL, start);
         }
-        return list;
     }
 
-    public void updateCustomer(Customer c) {
-        String sql = "UPDATE customers SET name=?, email=?, phone=? WHERE id=?";
-        try (Connection conn = DBConnection.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+    /** Rows for the given ids, in no particular order; ids with no row are left out. Fails whole rather than partial. */
+    public List<Customer> getByIds(Collection<Integer> ids) throws SQLException {
+        long start = Metrics.daoStart();
+        try {
+            List<Customer> list = new ArrayList<>(ids.size());
+            List<Integer> pending = new ArrayList<>(ids);
+            for (int from = 0; from < pending.size(); from += 500) {
+                List<Integer> slice = pending.subList(from, Math.min(from + 500, pending.size()));
+                String sql = "SELECT " + COLUMNS + " FROM customers WHERE id IN ("
+                        + String.join(",", Collections.nCopies(slice.size(), "?")) + ")";
+                try (Connection conn = DBConnection.getConnection();
+                     PreparedStatement ps = conn.prepareStatement(sql)) {
+                    for (int i = 0; i < slice.size(); i++) ps.setInt(i + 1, slice.get(i));
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) list.add(map(rs));
+                    }
+                }
+            }
+            return list;
+        } finally {
+            Metrics.daoEnd(TIME_GET_BY_IDS, start);
+        }
+    }
+
+    /** One keyset page. A read error throws rather than returning a short page that looks like the end. */
+    public Page<Customer> getCustomersPage(int afterId, int limit) throws SQLException {
+        long start = Metrics.daoStart();
+        try {
+            List<Customer> list = new ArrayList<>(limit);
+            String next = null;
+            String sql = "SELECT id, name, email, phone, version FROM customers WHERE id > ? ORDER BY id LIMIT ?";
+            try (Connection conn = DBConnection.getReadConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setInt(1, afterId);
+                ps.setInt(2, limit + 1);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        if (list.size() == limit) {
+                            next = PageToken.encode(list.get(limit - 1).getId());
+                            break;
+                        }
+                        list.add(map(rs));
+                    }
+                }
+            }
+            return new Page<>(list, next);
+        } finally {
+            Metrics.daoEnd(TIME_GET_PAGE, start);
+        }
+    }
+
+    /** Streams every customer to the sink without materialising the table in memory. */
+    public void streamAllCustomers(RowSink<Customer> sink) throws SQLException, IOException {
+        long start = Metrics.daoStart();
+        try {
+            String sql = "SELECT id, name, email, phone, version FROM customers ORDER BY id";
+            try (Connection conn = DBConnection.getReadConnection();
+                 PreparedStatement ps = DBConnection.prepareStreaming(conn, sql);
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Customer row = map(rs);
+                    long pause = Metrics.daoPause();
+                    try {
+                        sink.accept(row);
+                    } finally {
+                        Metrics.daoResume(pause);
+                    }
+                }
+            }
+        } finally {
+            Metrics.daoEnd(TIME_STREAM_ALL, start);
+        }
+    }
+
+    private Customer map(ResultSet rs) throws SQLException {
+        Customer c = new Customer();
+        c.setId(rs.getInt("id"));
+        c.setName(rs.getString("name"));
+        c.setEmail(rs.getString("email"));
+        c.setPhone(rs.getString("phone"));
+        c.setVersion(rs.getInt("version"));
+        return c;
+    }
+
+    /** Rewrites the whole row, but only if it is still at c's version (when c carries one). */
+    public UpdateResult<Customer> updateCustomer(Customer c) throws SQLException {
+        long start = Metrics.daoStart();
+        try {
+            Map<String, Object> set = new LinkedHashMap<>();
+            set.put("name", c.getName());
+            set.put("email", c.getEmail());
+            set.put("phone", c.getPhone());
+            UpdateResult<Customer> result = VersionedUpdate.apply("customers", COLUMNS, set, c.getId(), c.getVersion(), this::map);
+            if (result.isUpdated()) changed(List.of(c.getId()));
+            return result;
+        } finally {
+            Metrics.daoEnd(TIME_UPDATE, start);
+        }
+    }
+
+    /** Writes only the fields present in the patch. */
+    public UpdateResult<Customer> patchCustomer(int id, CustomerPatch patch) throws SQLException {
+        long start = Metrics.daoStart();
+        try {
+            Map<String, Object> set = new LinkedHashMap<>();
+            if (patch.getName() != null) set.put("name", patch.getName());
+            if (patch.getEmail() != null) set.put("email", patch.getEmail());
+            if (patch.getPhone() != null) set.put("phone", patch.getPhone());
+            int expected = patch.getVersion() == null ? 0 : patch.getVersion();
+            UpdateResult<Customer> result = VersionedUpdate.apply("customers", COLUMNS, set, id, expected, this::map);
+            if (result.isUpdated()) changed(List.of(id));
+            return result;
+        } finally {
+            Metrics.daoEnd(TIME_PATCH, start);
+        }
+    }
+
+    public void deleteCustomer(int id) {
+        long start = Metrics.daoStart();
+        try {
+            String sql = "DELETE FROM customers WHERE id=?";
+            try (Connection conn = DBConnection.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setInt(1, id);
+                if (ps.executeUpdate() > 0) changed(List.of(id));
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        } finally {
+            Metrics.daoEnd(TIME_DELETE, start);
+        }
+    }
+
+    public BatchWriter<Customer> batchAddCustomers(int chunkSize) throws SQLException {
+        String sql = "INSERT INTO customers (name, email, phone) VALUES (?, ?, ?)";
+        return new BatchWriter<>(sql, (ps, c) -> {
+            ps.setString(1, c.getName());
+            ps.setString(2, c.getEmail());
+            ps.setString(3, c.getPhone());
+        }, Customer::getId, true, chunkSize, CustomerDAO::changed);
+    }
+
+    public BatchWriter<Customer> batchUpdateCustomers(int chunkSize) throws SQLException {
+        String sql = "UPDATE customers SET name=?, email=?, phone=?, version=version+1 WHERE id=?";
+        return new BatchWriter<>(sql, (ps, c) -> {
             ps.setString(1, c.getName());
             ps.setString(2, c.getEmail());
             ps.setString(3, c.getPhone());
             ps.setInt(4, c.getId());
-            ps.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        }, Customer::getId, false, chunkSize, CustomerDAO::changed);
     }
 
-    public void deleteCustomer(int id) {
+    public BatchWriter<Integer> batchDeleteCustomers(int chunkSize) throws SQLException {
         String sql = "DELETE FROM customers WHERE id=?";
-        try (Connection conn = DBConnection.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, id);
-            ps.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        return new BatchWriter<>(sql, (ps, id) -> ps.setInt(1, id), id -> id, false, chunkSize, CustomerDAO::changed);
+    }
+
+    private static void changed(Collection<Integer> ids) {
+        ChangeLog.get().record(ChangeLog.Entity.CUSTOMER, ids);
     }
 }
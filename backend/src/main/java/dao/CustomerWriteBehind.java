@@ -0,0 +1,325 @@
+package dao;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import model.Customer;
+import util.Config;
+import util.LatencyHistogram;
+import util.Metrics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Optional write-behind path for unconditional customer updates. An update is
+ * acknowledged once it is appended to a local journal and forced to disk.
+ * Only the latest value per customer is kept in memory. Every flush interval
+ * those values go to the database in one batch.
+ *
+ * The journal is a series of numbered segment files. A flush closes the
+ * current segment, writes what is pending, and deletes the closed segments
+ * only after the commit. Anything the crash left behind is replayed on start.
+ * One caller at a time forces the journal. Appends that arrive while a force
+ * runs wait for it and are then covered together by the next force, so a
+ * burst costs a couple of disk flushes rather than one per request.
+ *
+ * A row the database refuses (a constraint or data error) would otherwise
+ * fail every later batch. When a batch fails, its rows are retried one at a
+ * time, and refused rows go to a rejected-updates file instead of blocking
+ * the rest. Past maxPending customers, new updates are turned away with
+ * FullException until a flush catches up.
+ */
+public class CustomerWriteBehind implements AutoCloseable {
+
+    public static class FullException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public FullException(String message) {
+            super(message);
+        }
+    }
+
+    private static final LatencyHistogram TIME_APPEND = Metrics.daoHistogram("customer_write_behind", "append");
+    private static final LatencyHistogram TIME_FLUSH = Metrics.daoHistogram("customer_write_behind", "flush");
+    private static final String PREFIX = "customers-";
+    private static final String SUFFIX = ".journal";
+    private static final String REJECTED = "rejected-updates.jsonl";
+
+    private final CustomerDAO dao;
+    private final Path dir;
+    private final int maxPending;
+    private final int chunkSize;
+    private final boolean fsync;
+    private final Gson gson = new Gson();
+    private final ConcurrentHashMap<Integer, Customer> pending = new ConcurrentHashMap<>();
+    private final Object appendLock = new Object();
+    private final Object flushLock = new Object();
+    private final Object syncLock = new Object();
+    private final AtomicLong synced = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong flushFailures = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+    private final AtomicLong turnedAway = new AtomicLong();
+    private final ScheduledExecutorService flusher;
+    private volatile FileChannel channel;
+    private volatile long appended;
+    private long segment;
+
+    public CustomerWriteBehind(CustomerDAO dao, Path dir, long flushIntervalMs, int maxPending, int chunkSize,
+                               boolean fsync) throws IOException {
+        this.dao = dao;
+        this.dir = dir;
+        this.maxPending = maxPending;
+        this.chunkSize = chunkSize;
+        this.fsync = fsync;
+        Files.createDirectories(dir);
+        List<Long> leftover = segments();
+        segment = leftover.isEmpty() ? 1 : leftover.get(leftover.size() - 1) + 1;
+        for (long n : leftover) replay(segmentPath(n));
+        channel = open(segment);
+        if (!pending.isEmpty()) {
+            System.out.println("📒 Replaying " + pending.size() + " journaled customer updates");
+            flushQuietly();
+        }
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "customer-write-behind");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public static CustomerWriteBehind fromConfig(CustomerDAO dao) throws IOException {
+        return new CustomerWriteBehind(dao,
+                Paths.get(Config.get("CUSTOMER_JOURNAL_DIR", "journal")),
+                Config.getLong("CUSTOMER_WRITE_BEHIND_FLUSH_MS", 1000),
+                Config.getInt("CUSTOMER_WRITE_BEHIND_MAX_PENDING", 10000),
+                Config.getInt("BATCH_CHUNK_SIZE", 500),
+                Config.getBoolean("CUSTOMER_JOURNAL_FSYNC", true));
+    }
+
+    /**
+     * Journals the update and returns once it is durable. It reaches the
+     * database on the next flush. Throws FullException when maxPending other
+     * customers are still waiting even after the caller's own flush attempt.
+     */
+    public void submit(Customer c) throws IOException {
+        if (pending.size() >= maxPending && !pending.containsKey(c.getId())) {
+            // The caller pays for a flush first, which slows a burst down to database speed.
+            flushQuietly();
+            if (pending.size() >= maxPending) {
+                turnedAway.incrementAndGet();
+                throw new FullException(pending.size() + " customer updates are waiting for the database");
+            }
+        }
+        long start = Metrics.daoStart();
+        long seq;
+        try {
+            ByteBuffer line = ByteBuffer.wrap((gson.toJson(c) + "\n").getBytes(StandardCharsets.UTF_8));
+            synchronized (appendLock) {
+                while (line.hasRemaining()) channel.write(line);
+                seq = ++appended;
+                pending.put(c.getId(), c);
+            }
+            if (fsync) sync(seq);
+        } finally {
+            Metrics.daoEnd(TIME_APPEND, start);
+        }
+    }
+
+    /** Forces the journal up to at least seq; one force covers every append made before it. */
+    private void sync(long seq) throws IOException {
+        if (synced.get() >= seq) return;
+        synchronized (syncLock) {
+            // The previous holder's force may already cover this append.
+            if (synced.get() >= seq) return;
+            // Read the count before the channel: anything counted is in this channel or an older, already forced one.
+            long upTo = appended;
+            FileChannel current = channel;
+            try {
+                current.force(false);
+            } catch (ClosedChannelException e) {
+                // Rotated meanwhile; rotation forces the segment before closing it.
+            }
+            synced.accumulateAndGet(upTo, Math::max);
+        }
+    }
+
+    /** Rows with any pending update applied on top, so readers see acknowledged writes. */
+    public List<Customer> overlay(List<Customer> rows) {
+        if (pending.isEmpty()) return rows;
+        List<Customer> out = new ArrayList<>(rows.size());
+        for (Customer row : rows) {
+            Customer queued = pending.get(row.getId());
+            if (queued == null) {
+                out.add(row);
+                continue;
+            }
+            Customer merged = new Customer();
+            merged.setId(row.getId());
+            merged.setName(queued.getName());
+            merged.setEmail(queued.getEmail());
+            merged.setPhone(queued.getPhone());
+            merged.setVersion(row.getVersion());
+            out.add(merged);
+        }
+        return out;
+    }
+
+    /** Writes this customer's pending update now, so a synchronous write after it is not overtaken. */
+    public void settle(int id) throws IOException, SQLException {
+        if (pending.containsKey(id)) flush();
+    }
+
+    /** Writes everything pending in one transaction, then drops the journal segments it covered. */
+    public void flush() throws IOException, SQLException {
+        synchronized (flushLock) {
+            List<Customer> batch;
+            long closed;
+            synchronized (appendLock) {
+                if (pending.isEmpty()) return;
+                batch = new ArrayList<>(pending.values());
+                closed = segment;
+                FileChannel old = channel;
+                old.force(false);
+                synced.accumulateAndGet(appended, Math::max);
+                channel = open(++segment);
+                old.close();
+            }
+            long start = Metrics.daoStart();
+            try {
+                write(batch, chunkSize);
+            } catch (SQLException e) {
+                flushFailures.incrementAndGet();
+                writeOneByOne(batch);
+            } finally {
+                Metrics.daoEnd(TIME_FLUSH, start);
+            }
+            for (Customer c : batch) pending.remove(c.getId(), c);
+            flushed.addAndGet(batch.size());
+            for (long n : segments()) {
+                if (n <= closed) Files.deleteIfExists(segmentPath(n));
+            }
+        }
+    }
+
+    private void write(List<Customer> rows, int chunk) throws SQLException {
+        try (BatchWriter<Customer> writer = dao.batchUpdateCustomers(chunk)) {
+            for (Customer c : rows) writer.add(c);
+            writer.commit();
+        }
+    }
+
+    /**
+     * Finds the rows that failed the batch. A row the database refuses is set
+     * aside; any other error, such as a lost connection, stops the flush and
+     * leaves the remaining rows pending for the next one.
+     */
+    private void writeOneByOne(List<Customer> batch) throws SQLException, IOException {
+        for (Customer c : batch) {
+            try {
+                write(List.of(c), 1);
+            } catch (SQLException e) {
+                if (!BatchWriter.refusedByDatabase(e)) throw e;
+                deadLetter(c, e);
+            }
+            pending.remove(c.getId(), c);
+        }
+    }
+
+    private void deadLetter(Customer c, SQLException e) throws IOException {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("customer", c);
+        entry.put("error", e.getMessage());
+        Files.write(dir.resolve(REJECTED), (gson.toJson(entry) + "\n").getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        deadLettered.incrementAndGet();
+        System.out.println("❌ Customer " + c.getId() + " update refused by the database, moved to " + REJECTED
+                + ": " + e.getMessage());
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException | SQLException | RuntimeException e) {
+            System.out.println("❌ Customer write-behind flush failed, will retry: " + e.getMessage());
+        }
+    }
+
+    public int getPending() { return pending.size(); }
+    public long getFlushed() { return flushed.get(); }
+    public long getFlushFailures() { return flushFailures.get(); }
+    public long getDeadLettered() { return deadLettered.get(); }
+    public long getTurnedAway() { return turnedAway.get(); }
+    public long getJournaled() { return appended; }
+
+    @Override
+    public void close() throws IOException, SQLException {
+        flusher.shutdown();
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void replay(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                try {
+                    Customer c = gson.fromJson(line, Customer.class);
+                    if (c != null && c.getId() > 0) pending.put(c.getId(), c);
+                } catch (JsonParseException e) {
+                    // A torn last line from a crash mid-append; it was never acknowledged.
+                    System.out.println("⚠️ Skipping unreadable journal line in " + file.getFileName());
+                }
+            }
+        }
+    }
+
+    private FileChannel open(long n) throws IOException {
+        return FileChannel.open(segmentPath(n), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private Path segmentPath(long n) {
+        return dir.resolve(PREFIX + n + SUFFIX);
+    }
+
+    private List<Long> segments() throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(p -> p.getFileName().toString())
+                    .filter(name -> name.startsWith(PREFIX) && name.endsWith(SUFFIX))
+                    .forEach(name -> {
+                        try {
+                            numbers.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                        } catch (NumberFormatException ignored) {
+                            // Not one of ours.
+                        }
+                    });
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+}
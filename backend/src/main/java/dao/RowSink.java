@@ -0,0 +1,8 @@
+package dao;
+
+import java.io.IOException;
+
+@FunctionalInterface
+public interface RowSink<T> {
+    void accept(T row) throws IOException;
+}
@@ -0,0 +1,175 @@
+package dao;
+
+import util.DBConnection;
+import util.LatencyHistogram;
+import util.Metrics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Optional in-memory stock gate for hot titles. Each title gets its own
+ * counter, so concurrent purchases of different books never contend, and a
+ * purchase of the same book is a CAS rather than a lock. The database stays
+ * authoritative: the gate only turns away orders it already knows cannot be
+ * filled, before they queue for the row lock. Counters are dropped when any
+ * other write touches the book and expire after a TTL, so restocks made
+ * elsewhere show up.
+ *
+ * Only hot titles get a counter. Purchases of untracked titles are tallied
+ * in a fixed-size array of slots that is cleared every hotWindowMs, and a
+ * title is admitted once its slot reaches hotPurchases within one window.
+ * A counter that saw fewer than hotPurchases reservations by the time its
+ * TTL runs out is dropped rather than reloaded, so titles that cooled down
+ * make room. A slot shared by two titles can let a cold one in early; it
+ * then ages out the same way.
+ */
+public class StockCounters implements BookChangeListener {
+    private static final LatencyHistogram TIME_LOAD_STOCK = Metrics.daoHistogram("stock_counters", "loadStock");
+
+    static final class Counter {
+        final AtomicInteger available;
+        final long loadedAt = System.currentTimeMillis();
+        final LongAdder reservations = new LongAdder();
+
+        Counter(int available) {
+            this.available = new AtomicInteger(available);
+        }
+    }
+
+    private static final Counter UNTRACKED = new Counter(Integer.MAX_VALUE);
+    private static final int HEAT_SLOTS = 4096;
+
+    private final ConcurrentHashMap<Integer, Counter> counters = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long ttlMs;
+    private final int hotPurchases;
+    private final long hotWindowMs;
+    private final AtomicIntegerArray heat = new AtomicIntegerArray(HEAT_SLOTS);
+    private volatile long heatWindowStart = System.currentTimeMillis();
+    private final Object lock = new Object();
+    private long invalidations;
+    private final AtomicLong fastRejects = new AtomicLong();
+
+    public StockCounters(int maxEntries, long ttlMs, int hotPurchases, long hotWindowMs) {
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMs;
+        this.hotPurchases = Math.max(1, hotPurchases);
+        this.hotWindowMs = hotWindowMs;
+    }
+
+    /**
+     * Takes quantity from the title's counter. Returns the counter it was taken
+     * from (hand it back to release), a null-counter marker when the title is
+     * not tracked, or null when the counter says there is not enough stock.
+     */
+    Counter reserve(int bookId, int quantity) throws SQLException {
+        Counter counter = counterFor(bookId);
+        if (counter == UNTRACKED) return UNTRACKED;
+        AtomicInteger available = counter.available;
+        while (true) {
+            int current = available.get();
+            if (current < quantity) {
+                fastRejects.incrementAndGet();
+                return null;
+            }
+            if (available.compareAndSet(current, current - quantity)) {
+                counter.reservations.increment();
+                return counter;
+            }
+        }
+    }
+
+    void release(Counter counter, int quantity) {
+        if (counter != UNTRACKED) counter.available.addAndGet(quantity);
+    }
+
+    /** The database disagreed with the counter; reload it next time. */
+    void forget(int bookId) {
+        synchronized (lock) {
+            invalidations++;
+            counters.remove(bookId);
+        }
+    }
+
+    @Override
+    public void booksChanged(Collection<Integer> ids) {
+        synchronized (lock) {
+            invalidations++;
+            for (Integer id : ids) counters.remove(id);
+        }
+    }
+
+    /** Purchases already moved the counters they went through. */
+    @Override
+    public void stockChanged(Collection<Integer> ids) {
+    }
+
+    public int size() { return counters.size(); }
+    public long getFastRejects() { return fastRejects.get(); }
+
+    private Counter counterFor(int bookId) throws SQLException {
+        Counter counter = counters.get(bookId);
+        if (counter != null && System.currentTimeMillis() - counter.loadedAt < ttlMs) return counter;
+        if (counter != null && counter.reservations.sum() < hotPurchases) {
+            counters.remove(bookId, counter);
+            counter = null;
+        }
+        if (counter == null && (!heated(bookId) || counters.size() >= maxEntries)) return UNTRACKED;
+
+        long stamp;
+        synchronized (lock) {
+            stamp = invalidations;
+        }
+        Integer stock = loadStock(bookId);
+        if (stock == null) return UNTRACKED;
+        Counter fresh = new Counter(stock);
+        synchronized (lock) {
+            if (invalidations != stamp) return UNTRACKED;
+            if (counter != null) {
+                counters.replace(bookId, counter, fresh);
+            } else {
+                counters.putIfAbsent(bookId, fresh);
+            }
+            return counters.getOrDefault(bookId, UNTRACKED);
+        }
+    }
+
+    /** Counts a purchase of an untracked title; true once it is hot enough to track. */
+    private boolean heated(int bookId) {
+        long now = System.currentTimeMillis();
+        if (now - heatWindowStart >= hotWindowMs) {
+            synchronized (heat) {
+                if (now - heatWindowStart >= hotWindowMs) {
+                    for (int i = 0; i < HEAT_SLOTS; i++) heat.set(i, 0);
+                    heatWindowStart = now;
+                }
+            }
+        }
+        int slot = (bookId * 0x9E3779B9) >>> 20;
+        return heat.incrementAndGet(slot) >= hotPurchases;
+    }
+
+    private static Integer loadStock(int bookId) throws SQLException {
+        long start = Metrics.daoStart();
+        try {
+            try (Connection conn = DBConnection.getConnection();
+                 PreparedStatement ps = conn.prepareStatement("SELECT stock FROM books WHERE id=?")) {
+                ps.setInt(1, bookId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? rs.getInt(1) : null;
+                }
+            }
+        } finally {
+            Metrics.daoEnd(TIME_LOAD_STOCK, start);
+        }
+    }
+}
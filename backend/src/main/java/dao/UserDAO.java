@@ -1,69 +1,139 @@
 package dao;
 
 import model.User;
+import util.CacheStats;
+import util.Config;
 import util.DBConnection;
+import util.LatencyHistogram;
+import util.LruCache;
+import util.Metrics;
+import util.PasswordHashing;
 import java.sql.*;
-import java.security.MessageDigest;
+import java.util.Locale;
 
 
 public class UserDAO {
 
+    // Emails that recently matched no user. Logins for them are refused
+    // without a query or a hash until the entry expires or someone registers.
+    private static final LruCache<String, Boolean> UNKNOWN_EMAILS = new LruCache<>(
+            Config.getInt("LOGIN_UNKNOWN_EMAIL_MAX", 100000),
+            Config.getLong("LOGIN_UNKNOWN_EMAIL_TTL_MS", 60000));
+    private static final LatencyHistogram TIME_REGISTER = Metrics.daoHistogram("user", "register");
+    private static final LatencyHistogram TIME_LOGIN = Metrics.daoHistogram("user", "login");
 
-    private String hashPassword(String password) throws Exception {
-        MessageDigest md = MessageDigest.getInstance("SHA-256");
-        byte[] hash = md.digest(password.getBytes("UTF-8"));
+    public static CacheStats unknownEmailStats() {
+        return UNKNOWN_EMAILS.stats();
+    }
 
-        StringBuilder sb = new StringBuilder();
-        for (byte b : hash) {
-            sb.append(String.format("%02x", b));
-        }
-        return sb.toString();
+    private static String emailKey(String email) {
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+
+    private String hashPassword(String password) {
+        return PasswordHashing.get().hash(password);
     }
 
 
     public boolean register(User user) {
+    long start = Metrics.daoStart();
     String sql = "INSERT INTO users (name, email, password) VALUES (?, ?, ?)";
+    String hashed = hashPassword(user.getPassword());
     try (Connection conn = DBConnection.getConnection();
          PreparedStatement ps = conn.prepareStatement(sql)) {
 
-        String hashed = hashPassword(user.getPassword());
-
         ps.setString(1, user.getName());
         ps.setString(2, user.getEmail());
         ps.setString(3, hashed);
         ps.executeUpdate();
+        UNKNOWN_EMAILS.remove(emailKey(user.getEmail()));
         return true;
 
     } catch (Exception e) {
         System.out.println("❌ Registration failed: " + e.getMessage());
         return false;
+    } finally {
+        Metrics.daoEnd(TIME_REGISTER, start);
     }
 }
 
 
+    /**
+     * Looks the user up by email and checks the password against the stored
+     * hash off the request thread. Hashes in an older format or at an older
+     * cost are replaced after a successful login. Emails with no account
+     * are remembered for a while so repeated attempts skip the database.
+     */
     public User login(String email, String password) {
-    String sql = "SELECT * FROM users WHERE email=? AND password=?";
-    try (Connection conn = DBConnection.getConnection();
-         PreparedStatement ps = conn.prepareStatement(sql)) {
-
-        String hashed = hashPassword(password);
-
-        ps.setString(1, email);
-        ps.setString(2, hashed);
-        ResultSet rs = ps.executeQuery();
-
-        if (rs.next()) {
-            User user = new User();
-            user.setId(rs.getInt("id"));
-            user.setName(rs.getString("name"));
-            user.setEmail(rs.getString("email"));
-            return user;
+        long start = Metrics.daoStart();
+        try {
+            return checkLogin(email, password);
+        } finally {
+            Metrics.daoEnd(TIME_LOGIN, start);
         }
+    }
+
+    private User checkLogin(String email, String password) {
+    if (email == null || password == null) return null;
+    String key = emailKey(email);
+    if (UNKNOWN_EMAILS.get(key) != null) return null;
 
+    User user;
+    try {
+        user = findByEmail(DBConnection.getReadConnection(), email);
+        // A replica may not have a just-registered account yet; only the primary can say it is unknown.
+        if (user == null && DBConnection.hasReplicas()) user = findByEmail(DBConnection.getConnection(), email);
     } catch (Exception e) {
         System.out.println("❌ Login failed: " + e.getMessage());
+        return null;
+    }
+
+    if (user == null) {
+        UNKNOWN_EMAILS.put(key, Boolean.TRUE);
+        return null;
     }
-    return null;
+    String stored = user.getPassword();
+    user.setPassword(null);
+    PasswordHashing hashing = PasswordHashing.get();
+    if (!hashing.verify(password, stored)) return null;
+    if (hashing.needsRehash(stored)) upgradeHash(user.getId(), stored, password);
+    return user;
 }
 
+    /** The user with this email, password hash included, or null. Closes the connection. */
+    private User findByEmail(Connection connection, String email) throws SQLException {
+        String sql = "SELECT id, name, email, password FROM users WHERE email=?";
+        try (Connection conn = connection;
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, email);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return null;
+                User user = new User();
+                user.setId(rs.getInt("id"));
+                user.setName(rs.getString("name"));
+                user.setEmail(rs.getString("email"));
+                user.setPassword(rs.getString("password"));
+                return user;
+            }
+        }
+    }
+
+
+    private void upgradeHash(int userId, String oldHash, String password) {
+        String sql = "UPDATE users SET password=? WHERE id=? AND password=?";
+        try {
+            String upgraded = hashPassword(password);
+            try (Connection conn = DBConnection.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setString(1, upgraded);
+                ps.setInt(2, userId);
+                ps.setString(3, oldHash);
+                ps.executeUpdate();
+            }
+        } catch (Exception e) {
+            System.out.println("⚠️ Could not upgrade password hash for user " + userId + ": " + e.getMessage());
+        }
+    }
+
 }
@@ -0,0 +1,60 @@
+package dao;
+
+import model.UpdateResult;
+import util.DBConnection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * Single-row UPDATE guarded by the row's version column. Only the given
+ * columns are written, the version is bumped, and the row is read back in
+ * the same transaction. The caller gets either the row as written or the
+ * newer row that got there first.
+ */
+final class VersionedUpdate {
+    interface RowMapper<T> {
+        T map(ResultSet rs) throws SQLException;
+    }
+
+    private VersionedUpdate() {}
+
+    /** An expectedVersion of 0 skips the check and updates whatever is there. */
+    static <T> UpdateResult<T> apply(String table, String columns, Map<String, Object> assignments,
+                                     int id, int expectedVersion, RowMapper<T> mapper) throws SQLException {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        for (String column : assignments.keySet()) sql.append(column).append("=?, ");
+        sql.append("version=version+1 WHERE id=?");
+        if (expectedVersion > 0) sql.append(" AND version=?");
+
+        try (Connection conn = DBConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                int updated;
+                try (PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+                    int i = 1;
+                    for (Object value : assignments.values()) ps.setObject(i++, value);
+                    ps.setInt(i++, id);
+                    if (expectedVersion > 0) ps.setInt(i, expectedVersion);
+                    updated = ps.executeUpdate();
+                }
+                T current = null;
+                try (PreparedStatement ps = conn.prepareStatement("SELECT " + columns + " FROM " + table + " WHERE id=?")) {
+                    ps.setInt(1, id);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) current = mapper.map(rs);
+                    }
+                }
+                conn.commit();
+                if (updated > 0) return UpdateResult.updated(current);
+                return current == null ? UpdateResult.notFound() : UpdateResult.conflict(current);
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package model;
+
+public class BatchItemResult {
+    private final int index;
+    private final String status;
+    private final Integer id;
+    private final String error;
+
+    public BatchItemResult(int index, String status, Integer id, String error) {
+        this.index = index;
+        this.status = status;
+        this.id = id;
+        this.error = error;
+    }
+
+    public int getIndex() { return index; }
+    public String getStatus() { return status; }
+    public Integer getId() { return id; }
+    public String getError() { return error; }
+}
@@ -6,6 +6,7 @@ public class Book {
     private String author;
     private double price;
     private int stock;
+    private int version;
 
     public Book() {}
     public Book(int id, String title, String author, double price, int stock) {
@@ -26,4 +27,8 @@ public class Book {
     public void setPrice(double price) { this.price = price; }
     public int getStock() { return stock; }
     public void setStock(int stock) { this.stock = stock; }
+
+    /** Bumped on every write to the row; 0 means unknown, which skips the concurrency check. */
+    public int getVersion() { return version; }
+    public void setVersion(int version) { this.version = version; }
 }
@@ -0,0 +1,20 @@
+package model;
+
+/** Body of PATCH /api/books/{id}: only the fields that are present get written. */
+public class BookPatch {
+    private String title;
+    private String author;
+    private Double price;
+    private Integer stock;
+    private Integer version;
+
+    public String getTitle() { return title; }
+    public String getAuthor() { return author; }
+    public Double getPrice() { return price; }
+    public Integer getStock() { return stock; }
+    public Integer getVersion() { return version; }
+
+    public boolean isEmpty() {
+        return title == null && author == null && price == null && stock == null;
+    }
+}
@@ -0,0 +1,34 @@
+package model;
+
+import java.util.List;
+
+/**
+ * What changed between two change-log cursors. Rows are their state when the
+ * delta was read, not when the change was logged; ids whose row no longer
+ * exists are listed as deleted. Pass next as since to continue.
+ */
+public class ChangeSet {
+    private final long next;
+    private final boolean more;
+    private final List<Book> books;
+    private final List<Integer> deletedBooks;
+    private final List<Customer> customers;
+    private final List<Integer> deletedCustomers;
+
+    public ChangeSet(long next, boolean more, List<Book> books, List<Integer> deletedBooks,
+                     List<Customer> customers, List<Integer> deletedCustomers) {
+        this.next = next;
+        this.more = more;
+        this.books = books;
+        this.deletedBooks = deletedBooks;
+        this.customers = customers;
+        this.deletedCustomers = deletedCustomers;
+    }
+
+    public long getNext() { return next; }
+    public boolean isMore() { return more; }
+    public List<Book> getBooks() { return books; }
+    public List<Integer> getDeletedBooks() { return deletedBooks; }
+    public List<Customer> getCustomers() { return customers; }
+    public List<Integer> getDeletedCustomers() { return deletedCustomers; }
+}
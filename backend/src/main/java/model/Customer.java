@@ -5,6 +5,7 @@ public class Customer {
     private String name;
     private String email;
     private String phone;
+    private int version;
 
     public Customer() {}
     public Customer(String name, String email, String phone) {
@@ -22,6 +23,10 @@ public class Customer {
     public String getPhone() { return phone; }
     public void setPhone(String phone) { this.phone = phone; }
 
+    /** Bumped on every write to the row; 0 means unknown, which skips the concurrency check. */
+    public int getVersion() { return version; }
+    public void setVersion(int version) { this.version = version; }
+
     @Override
     public String toString() {
         return id + " | " + name + " | " + email + " | " + phone;
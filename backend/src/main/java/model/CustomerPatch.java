@@ -0,0 +1,18 @@
+package model;
+
+/** Body of PATCH /api/customers/{id}: only the fields that are present get written. */
+public class CustomerPatch {
+    private String name;
+    private String email;
+    private String phone;
+    private Integer version;
+
+    public String getName() { return name; }
+    public String getEmail() { return email; }
+    public String getPhone() { return phone; }
+    public Integer getVersion() { return version; }
+
+    public boolean isEmpty() {
+        return name == null && email == null && phone == null;
+    }
+}
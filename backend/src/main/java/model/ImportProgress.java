@@ -0,0 +1,61 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class ImportProgress {
+
+    public static class RowError {
+        private final long line;
+        private final String error;
+
+        public RowError(long line, String error) {
+            this.line = line;
+            this.error = error;
+        }
+
+        public long getLine() { return line; }
+        public String getError() { return error; }
+    }
+
+    private final String jobId;
+    private final transient long startedAt = System.currentTimeMillis();
+    private volatile String status = "running";
+    private volatile long rowsRead;
+    private volatile long rowsImported;
+    private volatile long rowsFailed;
+    private volatile long elapsedMs;
+    private volatile double rowsPerSecond;
+    private final List<RowError> errors = new CopyOnWriteArrayList<>();
+    private final transient int maxErrors;
+
+    public ImportProgress(String jobId, int maxErrors) {
+        this.jobId = jobId;
+        this.maxErrors = maxErrors;
+    }
+
+    public synchronized void addError(long line, String error) {
+        if (errors.size() < maxErrors) errors.add(new RowError(line, error));
+    }
+
+    public synchronized List<RowError> getErrors() { return new ArrayList<>(errors); }
+
+    public synchronized void rowRead() { rowsRead++; }
+    public synchronized void imported(long rows) { rowsImported += rows; }
+    public synchronized void failed(long rows) { rowsFailed += rows; }
+
+    public synchronized void finish(String status) {
+        this.status = status;
+        this.elapsedMs = Math.max(1, System.currentTimeMillis() - startedAt);
+        this.rowsPerSecond = rowsImported * 1000.0 / elapsedMs;
+    }
+
+    public String getJobId() { return jobId; }
+    public String getStatus() { return status; }
+    public long getRowsRead() { return rowsRead; }
+    public long getRowsImported() { return rowsImported; }
+    public long getRowsFailed() { return rowsFailed; }
+    public long getElapsedMs() { return elapsedMs; }
+    public double getRowsPerSecond() { return rowsPerSecond; }
+}
@@ -0,0 +1,15 @@
+package model;
+
+import java.util.List;
+
+public class Order {
+    private List<OrderLine> lines;
+
+    public Order() {}
+    public Order(List<OrderLine> lines) {
+        this.lines = lines;
+    }
+
+    public List<OrderLine> getLines() { return lines; }
+    public void setLines(List<OrderLine> lines) { this.lines = lines; }
+}
@@ -0,0 +1,17 @@
+package model;
+
+public class OrderLine {
+    private int bookId;
+    private int quantity;
+
+    public OrderLine() {}
+    public OrderLine(int bookId, int quantity) {
+        this.bookId = bookId;
+        this.quantity = quantity;
+    }
+
+    public int getBookId() { return bookId; }
+    public void setBookId(int bookId) { this.bookId = bookId; }
+    public int getQuantity() { return quantity; }
+    public void setQuantity(int quantity) { this.quantity = quantity; }
+}
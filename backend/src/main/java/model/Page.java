@@ -0,0 +1,16 @@
+package model;
+
+import java.util.List;
+
+public class Page<T> {
+    private final List<T> items;
+    private final String next;
+
+    public Page(List<T> items, String next) {
+        this.items = items;
+        this.next = next;
+    }
+
+    public List<T> getItems() { return items; }
+    public String getNext() { return next; }
+}
@@ -0,0 +1,36 @@
+package model;
+
+import java.util.List;
+
+public class PurchaseResult {
+
+    public static class Line {
+        private final int bookId;
+        private final int quantity;
+        private final String status;
+        private final Integer available;
+
+        public Line(int bookId, int quantity, String status, Integer available) {
+            this.bookId = bookId;
+            this.quantity = quantity;
+            this.status = status;
+            this.available = available;
+        }
+
+        public int getBookId() { return bookId; }
+        public int getQuantity() { return quantity; }
+        public String getStatus() { return status; }
+        public Integer getAvailable() { return available; }
+    }
+
+    private final boolean success;
+    private final List<Line> lines;
+
+    public PurchaseResult(boolean success, List<Line> lines) {
+        this.success = success;
+        this.lines = lines;
+    }
+
+    public boolean isSuccess() { return success; }
+    public List<Line> getLines() { return lines; }
+}
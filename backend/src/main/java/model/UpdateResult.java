@@ -0,0 +1,25 @@
+package model;
+
+/**
+ * Outcome of a versioned write. After an update, current is the row as
+ * written. After a conflict, it is the newer row that blocked the write.
+ */
+public class UpdateResult<T> {
+    public enum Status { UPDATED, CONFLICT, NOT_FOUND }
+
+    private final Status status;
+    private final T current;
+
+    private UpdateResult(Status status, T current) {
+        this.status = status;
+        this.current = current;
+    }
+
+    public static <T> UpdateResult<T> updated(T current) { return new UpdateResult<>(Status.UPDATED, current); }
+    public static <T> UpdateResult<T> conflict(T current) { return new UpdateResult<>(Status.CONFLICT, current); }
+    public static <T> UpdateResult<T> notFound() { return new UpdateResult<>(Status.NOT_FOUND, null); }
+
+    public Status getStatus() { return status; }
+    public T getCurrent() { return current; }
+    public boolean isUpdated() { return status == Status.UPDATED; }
+}
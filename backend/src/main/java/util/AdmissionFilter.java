@@ -0,0 +1,80 @@
+package util;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps the number of requests being handled at once across every context it
+ * is attached to. Requests over the limit get 503 instead of piling up behind
+ * a slow database.
+ */
+public class AdmissionFilter extends Filter {
+    private static final byte[] BUSY = "{\"error\":\"Server busy, try again later\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final Semaphore permits;
+    private final int maxConcurrent;
+    private final long waitMs;
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public AdmissionFilter(int maxConcurrent, long waitMs) {
+        this.maxConcurrent = maxConcurrent;
+        this.waitMs = waitMs;
+        this.permits = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        if (ServerExecutors.isRejected() || !tryAdmit()) {
+            rejected.incrementAndGet();
+            reject(exchange);
+            return;
+        }
+        admitted.incrementAndGet();
+        try {
+            chain.doFilter(exchange);
+        } finally {
+            if (permits != null) permits.release();
+        }
+    }
+
+    private boolean tryAdmit() {
+        if (permits == null) return true;
+        try {
+            return waitMs > 0 ? permits.tryAcquire(waitMs, TimeUnit.MILLISECONDS) : permits.tryAcquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void reject(HttpExchange exchange) throws IOException {
+        try {
+            exchange.getRequestBody().close();
+            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            exchange.sendResponseHeaders(503, BUSY.length);
+            try (OutputStream os = exchange.getResponseBody()) { os.write(BUSY); }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    public int getMaxConcurrent() { return maxConcurrent; }
+    public int getInFlight() { return permits == null ? 0 : maxConcurrent - permits.availablePermits(); }
+    public long getAdmitted() { return admitted.get(); }
+    public long getRejected() { return rejected.get(); }
+
+    @Override
+    public String description() {
+        return "Limits concurrent requests to " + (maxConcurrent > 0 ? maxConcurrent : "unlimited");
+    }
+}
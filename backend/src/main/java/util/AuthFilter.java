@@ -0,0 +1,57 @@
+package util;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Requires a valid "Authorization: Bearer" session token. CORS preflights
+ * pass through untouched. The verified session is stored on the exchange as
+ * the "session" attribute.
+ */
+public class AuthFilter extends Filter {
+    private static final byte[] UNAUTHORIZED = "{\"error\":\"Login required\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final SessionTokens tokens;
+
+    public AuthFilter(SessionTokens tokens) {
+        this.tokens = tokens;
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        if (exchange.getRequestMethod().equalsIgnoreCase("OPTIONS")) {
+            chain.doFilter(exchange);
+            return;
+        }
+        SessionTokens.Session session = tokens.verify(bearer(exchange));
+        if (session == null) {
+            try {
+                exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+                exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+                exchange.sendResponseHeaders(401, UNAUTHORIZED.length);
+                try (OutputStream os = exchange.getResponseBody()) { os.write(UNAUTHORIZED); }
+            } finally {
+                exchange.close();
+            }
+            return;
+        }
+        exchange.setAttribute("session", session);
+        chain.doFilter(exchange);
+    }
+
+    public static String bearer(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.regionMatches(true, 0, "Bearer ", 0, 7)) return null;
+        return header.substring(7).trim();
+    }
+
+    @Override
+    public String description() {
+        return "Requires a signed session token";
+    }
+}
@@ -0,0 +1,44 @@
+package util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+public class Config {
+    private static final Properties PROPS = new Properties();
+
+    // -DENV_FILE points at another file, e.g. for benchmarks run outside the backend folder.
+    static {
+        String file = System.getProperty("ENV_FILE", ".env");
+        try (FileInputStream in = new FileInputStream(file)) {
+            PROPS.load(in);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load " + file + " file: " + e.getMessage());
+        }
+    }
+
+    public static String get(String key) {
+        String override = System.getProperty(key);
+        return override != null ? override : PROPS.getProperty(key);
+    }
+
+    public static String get(String key, String defaultValue) {
+        String value = get(key);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key);
+        return value == null || value.isBlank() ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = get(key);
+        return value == null || value.isBlank() ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key);
+        return value == null || value.isBlank() ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+}
@@ -0,0 +1,283 @@
+package util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded JDBC connection pool. Borrowed connections are proxies whose
+ * close() hands the physical connection back to the pool, so callers keep
+ * using plain try-with-resources. A borrow costs no round trip unless the
+ * connection sat idle for longer than validateAfterIdleMs, and no stack
+ * capture unless leakDebug asks where leaked connections were borrowed.
+ */
+public class ConnectionPool implements ConnectionSource {
+
+    public static class Settings {
+        public int minSize = 2;
+        public int maxSize = 10;
+        public long idleTimeoutMs = 300_000;
+        public long borrowTimeoutMs = 5_000;
+        public long leakThresholdMs = 30_000;
+        public boolean leakDebug = false;
+        public long validateAfterIdleMs = 1_000;
+        public int validationTimeoutSec = 2;
+        public long housekeepingIntervalMs = 10_000;
+    }
+
+    private static final class Entry {
+        final Connection physical;
+        volatile long lastUsed = System.currentTimeMillis();
+        volatile long borrowedAt;
+        volatile Throwable borrowSite;
+        volatile boolean leakReported;
+
+        Entry(Connection physical) { this.physical = physical; }
+    }
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final Settings settings;
+
+    private final LinkedBlockingDeque<Entry> idle = new LinkedBlockingDeque<>();
+    private final Map<Entry, Boolean> active = new ConcurrentHashMap<>();
+    private final Semaphore permits;
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    public ConnectionPool(String url, String user, String password, Settings settings) {
+        if (settings.maxSize < 1 || settings.minSize < 0 || settings.minSize > settings.maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + settings.minSize + ", max=" + settings.maxSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.settings = settings;
+        this.permits = new Semaphore(settings.maxSize, true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep,
+                settings.housekeepingIntervalMs, settings.housekeepingIntervalMs, TimeUnit.MILLISECONDS);
+        fillToMinimum();
+    }
+
+    @Override
+    public Connection borrow() throws SQLException {
+        return borrow(settings.borrowTimeoutMs);
+    }
+
+    @Override
+    public Connection borrow(long timeoutMs) throws SQLException {
+        if (closed) throw new SQLException("Connection pool is closed");
+        long start = System.nanoTime();
+        waiting.incrementAndGet();
+        try {
+            if (!permits.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+                // A zero-wait probe that finds the pool full is not a timeout.
+                if (timeoutMs > 0) timeouts.incrementAndGet();
+                throw new SQLTransientConnectionException("Timed out after " + timeoutMs
+                        + "ms waiting for a connection (" + stats() + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        } finally {
+            waiting.decrementAndGet();
+            totalWaitNanos.addAndGet(System.nanoTime() - start);
+        }
+
+        try {
+            Entry entry = takeValidIdle();
+            if (entry == null) entry = create();
+            entry.borrowedAt = System.currentTimeMillis();
+            entry.leakReported = false;
+            entry.borrowSite = settings.leakDebug ? new Throwable("Connection borrowed here") : null;
+            active.put(entry, Boolean.TRUE);
+            borrowed.incrementAndGet();
+            return wrap(entry);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /** Most recently used first; only connections idle past validateAfterIdleMs are checked with the server. */
+    private Entry takeValidIdle() {
+        Entry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            if (System.currentTimeMillis() - entry.lastUsed <= settings.validateAfterIdleMs) return entry;
+            if (isValid(entry)) return entry;
+            validationFailures.incrementAndGet();
+            destroy(entry);
+        }
+        return null;
+    }
+
+    private boolean isValid(Entry entry) {
+        try {
+            return !entry.physical.isClosed() && entry.physical.isValid(settings.validationTimeoutSec);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Entry create() throws SQLException {
+        Connection physical = DriverManager.getConnection(url, user, password);
+        total.incrementAndGet();
+        created.incrementAndGet();
+        return new Entry(physical);
+    }
+
+    private void destroy(Entry entry) {
+        total.decrementAndGet();
+        destroyed.incrementAndGet();
+        try { entry.physical.close(); } catch (SQLException ignored) { }
+    }
+
+    private void release(Entry entry) {
+        if (active.remove(entry) == null) return;
+        try {
+            boolean reusable = !closed && !entry.physical.isClosed();
+            if (reusable && !entry.physical.getAutoCommit()) {
+                entry.physical.rollback();
+                entry.physical.setAutoCommit(true);
+            }
+            if (reusable && entry.physical.isReadOnly()) {
+                entry.physical.setReadOnly(false);
+            }
+            if (reusable) {
+                entry.lastUsed = System.currentTimeMillis();
+                entry.borrowSite = null;
+                idle.offerFirst(entry);
+            } else {
+                destroy(entry);
+            }
+        } catch (SQLException e) {
+            destroy(entry);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private Connection wrap(Entry entry) {
+        InvocationHandler handler = new InvocationHandler() {
+            private volatile boolean returned;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close":
+                        if (!returned) {
+                            returned = true;
+                            release(entry);
+                        }
+                        return null;
+                    case "isClosed":
+                        return returned || entry.physical.isClosed();
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "PooledConnection[" + entry.physical + "]";
+                    default:
+                        if (returned) throw new SQLException("Connection is closed");
+                        try {
+                            return method.invoke(entry.physical, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                }
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, handler);
+    }
+
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+
+            if (settings.leakThresholdMs > 0) {
+                for (Entry entry : active.keySet()) {
+                    if (!entry.leakReported && now - entry.borrowedAt > settings.leakThresholdMs) {
+                        entry.leakReported = true;
+                        leaks.incrementAndGet();
+                        System.out.println("⚠️ Possible connection leak: held for " + (now - entry.borrowedAt) + "ms");
+                        Throwable site = entry.borrowSite;
+                        if (site != null) site.printStackTrace(System.out);
+                        else System.out.println("   Set DB_POOL_LEAK_DEBUG=true to log where it was borrowed.");
+                    }
+                }
+            }
+
+            for (Entry entry : idle) {
+                if (total.get() <= settings.minSize) break;
+                if (now - entry.lastUsed > settings.idleTimeoutMs && idle.removeFirstOccurrence(entry)) {
+                    destroy(entry);
+                }
+            }
+
+            fillToMinimum();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void fillToMinimum() {
+        while (!closed && total.get() < settings.minSize && permits.tryAcquire()) {
+            try {
+                idle.offerLast(create());
+            } catch (SQLException e) {
+                System.out.println("❌ Could not open pooled connection: " + e.getMessage());
+                return;
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    @Override
+    public PoolStats stats() {
+        long borrows = borrowed.get();
+        return new PoolStats(total.get(), idle.size(), active.size(), waiting.get(),
+                settings.minSize, settings.maxSize, borrows, created.get(), destroyed.get(),
+                timeouts.get(), validationFailures.get(), leaks.get(),
+                borrows == 0 ? 0 : totalWaitNanos.get() / borrows / 1000);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        Entry entry;
+        while ((entry = idle.pollFirst()) != null) destroy(entry);
+    }
+}
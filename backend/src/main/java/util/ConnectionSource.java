@@ -0,0 +1,26 @@
+package util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Where DAOs get connections from. Closing a borrowed connection gives it
+ * back. ConnectionPool is the usual implementation; anything else (a
+ * different pool, a test double) can be installed through DBConnection.
+ */
+public interface ConnectionSource {
+    Connection borrow() throws SQLException;
+
+    /**
+     * Like borrow(), but gives up with SQLTransientConnectionException once
+     * timeoutMs pass without a free connection. Sources that never wait can
+     * keep this default.
+     */
+    default Connection borrow(long timeoutMs) throws SQLException {
+        return borrow();
+    }
+
+    PoolStats stats();
+
+    void close();
+}
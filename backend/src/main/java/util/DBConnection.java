@@ -1,36 +1,159 @@
 package util;
 
-import java.io.FileInputStream;
-import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
-import java.util.Properties;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Static entry point the DAOs use for connections. By default it builds a
+ * pool for DB_URL plus one per DB_REPLICA_URLS entry on first use. Tests and
+ * benchmarks can install their own sources before that happens.
+ */
 public class DBConnection {
-    private static String URL;
-    private static String USER;
-    private static String PASSWORD;
+    private static final String URL = withBatchRewrite(Config.get("DB_URL"));
+    private static volatile ReplicaRouter router;
 
-    static {
+    private static ReplicaRouter router() {
+        ReplicaRouter current = router;
+        if (current != null) return current;
+        synchronized (DBConnection.class) {
+            if (router == null) router = fromConfig();
+            return router;
+        }
+    }
+
+    /** Replaces the configured sources, e.g. with embedded databases. The caller closes the previous router. */
+    public static synchronized ReplicaRouter install(ReplicaRouter replacement) {
+        ReplicaRouter previous = router;
+        router = replacement;
+        return previous;
+    }
+
+    private static ReplicaRouter fromConfig() {
         try {
-            Properties props = new Properties();
-            props.load(new FileInputStream(".env"));
-            URL = props.getProperty("DB_URL");
-            USER = props.getProperty("DB_USER");
-            PASSWORD = props.getProperty("DB_PASS");
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to load .env file: " + e.getMessage());
+            Class.forName("com.mysql.cj.jdbc.Driver");
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("MySQL driver not found: " + e.getMessage());
         }
+
+        String user = Config.get("DB_USER");
+        String password = Config.get("DB_PASS");
+        ConnectionPool.Settings settings = poolSettings(Config.getInt("DB_POOL_MAX", new ConnectionPool.Settings().maxSize));
+        ConnectionPool primary = new ConnectionPool(URL, user, password, settings);
+        System.out.println("✅ Database pool ready (" + primary.stats() + ")");
+
+        List<ConnectionSource> replicas = new ArrayList<>();
+        String replicaUrls = Config.get("DB_REPLICA_URLS", "");
+        for (String url : replicaUrls.split(",")) {
+            if (url.isBlank()) continue;
+            replicas.add(new ConnectionPool(withBatchRewrite(url.trim()),
+                    Config.get("DB_REPLICA_USER", user), Config.get("DB_REPLICA_PASS", password),
+                    poolSettings(Config.getInt("DB_REPLICA_POOL_MAX", settings.maxSize))));
+        }
+        if (!replicas.isEmpty()) System.out.println("✅ Reads spread over " + replicas.size() + " replicas");
+
+        ReplicaRouter configured = new ReplicaRouter(primary, replicas,
+                Config.getLong("DB_REPLICA_CHECK_MS", 5000), Config.getLong("DB_REPLICA_BORROW_WAIT_MS", 0),
+                settings.validationTimeoutSec);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("Database pool stats at shutdown: " + primary.stats());
+            configured.close();
+        }));
+        return configured;
     }
 
+    private static ConnectionPool.Settings poolSettings(int maxSize) {
+        ConnectionPool.Settings settings = new ConnectionPool.Settings();
+        settings.minSize = Config.getInt("DB_POOL_MIN", settings.minSize);
+        settings.maxSize = maxSize;
+        settings.idleTimeoutMs = Config.getLong("DB_POOL_IDLE_TIMEOUT_MS", settings.idleTimeoutMs);
+        settings.borrowTimeoutMs = Config.getLong("DB_POOL_BORROW_TIMEOUT_MS", settings.borrowTimeoutMs);
+        settings.leakThresholdMs = Config.getLong("DB_POOL_LEAK_THRESHOLD_MS", settings.leakThresholdMs);
+        settings.leakDebug = Config.getBoolean("DB_POOL_LEAK_DEBUG", settings.leakDebug);
+        settings.validateAfterIdleMs = Config.getLong("DB_POOL_VALIDATE_AFTER_IDLE_MS", settings.validateAfterIdleMs);
+        settings.validationTimeoutSec = Config.getInt("DB_POOL_VALIDATION_TIMEOUT_SEC", settings.validationTimeoutSec);
+        return settings;
+    }
+
+    /** Lets Connector/J collapse JDBC batches into multi-row statements unless DB_REWRITE_BATCHED=false. */
+    private static String withBatchRewrite(String url) {
+        if (url == null || !url.startsWith("jdbc:mysql:") || url.contains("rewriteBatchedStatements")
+                || !Config.getBoolean("DB_REWRITE_BATCHED", true)) {
+            return url;
+        }
+        return url + (url.contains("?") ? "&" : "?") + "rewriteBatchedStatements=true";
+    }
+
+    /** A primary connection; use it for writes and for reads that must see them. */
     public static Connection getConnection() {
         try {
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            Connection connection = DriverManager.getConnection(URL, USER, PASSWORD);
-            System.out.println("✅ Database connected");
-            return connection;
+            return router().write();
         } catch (Exception e) {
             throw new RuntimeException("Database connection error: " + e.getMessage());
         }
     }
+
+    /** A replica connection when one is healthy, else the primary. May lag recent writes. */
+    public static Connection getReadConnection() {
+        try {
+            return router().read();
+        } catch (Exception e) {
+            throw new RuntimeException("Database connection error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Builds the pools now instead of on the first request, then holds that
+     * many primary connections at once plus one read connection, so the borrow
+     * and validation paths have run before traffic arrives.
+     */
+    public static void warm(int connections) {
+        List<Connection> held = new ArrayList<>();
+        try {
+            for (int i = 0; i < Math.max(1, connections); i++) held.add(router().write());
+            held.add(router().read());
+        } catch (SQLException e) {
+            System.out.println("❌ Could not warm database pool: " + e.getMessage());
+        } finally {
+            for (Connection conn : held) {
+                try { conn.close(); } catch (SQLException ignored) { }
+            }
+        }
+    }
+
+    public static boolean hasReplicas() {
+        return router().hasReplicas();
+    }
+
+    /**
+     * Prepares a forward-only, read-only statement that fetches rows in batches
+     * instead of buffering the whole result. Connector/J only streams with a
+     * fetch size of Integer.MIN_VALUE unless the URL enables useCursorFetch.
+     */
+    public static PreparedStatement prepareStreaming(Connection conn, String sql) throws SQLException {
+        PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        boolean mysql = URL != null && URL.startsWith("jdbc:mysql:");
+        if (mysql && !URL.contains("useCursorFetch=true")) {
+            ps.setFetchSize(Integer.MIN_VALUE);
+        } else {
+            ps.setFetchSize(Config.getInt("EXPORT_FETCH_SIZE", 1000));
+        }
+        return ps;
+    }
+
+    public static PoolStats getPoolStats() {
+        return router().getPrimary().stats();
+    }
+
+    public static Map<String, Object> getReplicaStats() {
+        return router().stats();
+    }
+
+    public static int getHealthyReplicas() {
+        return router().getHealthyReplicas();
+    }
 }
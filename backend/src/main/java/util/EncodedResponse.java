@@ -0,0 +1,61 @@
+package util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A response body encoded once and reused until the data it was built from
+ * changes. The gzip variant is only produced the first time a client asks for it.
+ */
+public class EncodedResponse {
+    private final long generation;
+    private final byte[] body;
+    private final String etag;
+    private volatile byte[] gzipped;
+
+    public EncodedResponse(long generation, byte[] body, String etag) {
+        this.generation = generation;
+        this.body = body;
+        this.etag = etag;
+    }
+
+    public long getGeneration() { return generation; }
+    public byte[] getBody() { return body; }
+    public String getEtag() { return etag; }
+
+    /** Strong validators must differ per encoding, so the gzip variant gets its own tag. */
+    public String getGzipEtag() {
+        return gzipEtag(etag);
+    }
+
+    public static String gzipEtag(String etag) {
+        return etag.substring(0, etag.length() - 1) + "-gz\"";
+    }
+
+    /** If-None-Match check; a tag matches whether or not the client marked it weak. */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals("*") || tag.equals(etag)) return true;
+        }
+        return false;
+    }
+
+    public byte[] getGzipped() {
+        byte[] result = gzipped;
+        if (result == null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+            try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+                gz.write(body);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            result = out.toByteArray();
+            gzipped = result;
+        }
+        return result;
+    }
+}
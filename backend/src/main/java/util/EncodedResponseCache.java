@@ -0,0 +1,46 @@
+package util;
+
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the encoded bytes of recently requested responses, keyed by request
+ * variant and tagged with the data generation they were rendered from.
+ */
+public class EncodedResponseCache {
+    private static final String BOOT_ID = Long.toHexString(System.currentTimeMillis());
+
+    private final String name;
+    private final LruCache<String, EncodedResponse> cache;
+
+    /** The TTL bounds how long an entry can outlive its data if a generation bump is ever missed. */
+    public EncodedResponseCache(String name, int maxEntries, long ttlMs) {
+        this.name = name;
+        this.cache = new LruCache<>(maxEntries, ttlMs);
+    }
+
+    /** The ETag the given variant has at the given generation, whether or not it is cached. */
+    public String etag(String key, long generation) {
+        return "\"" + name + "-" + BOOT_ID + "-" + generation + "-" + Integer.toHexString(key.hashCode()) + "\"";
+    }
+
+    /**
+     * Returns the cached encoding when it was built at the current generation,
+     * otherwise renders it again. The generation is read before rendering, so
+     * a write that lands mid-render only makes the result look older, never newer.
+     * A render that throws caches nothing; the exception goes to the caller.
+     */
+    public EncodedResponse get(String key, Supplier<Long> generation, Callable<byte[]> render) throws Exception {
+        long current = generation.get();
+        EncodedResponse cached = cache.get(key);
+        if (cached != null && cached.getGeneration() == current) return cached;
+        byte[] body = render.call();
+        EncodedResponse fresh = new EncodedResponse(current, body, etag(key, current));
+        cache.put(key, fresh);
+        return fresh;
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+}
@@ -0,0 +1,169 @@
+package util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Growable byte buffer that JSON is written into as UTF-8, with the same
+ * escaping Gson applies by default (HTML-safe), so output matches
+ * gson.toJson byte for byte. Buffers are pooled: take one with acquire() in
+ * try-with-resources and it goes back to the pool on close.
+ */
+public class JsonBuffer implements AutoCloseable {
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+    private static final int MAX_RETAINED = Config.getInt("JSON_BUFFER_MAX_RETAINED_BYTES", 1024 * 1024);
+    private static final ArrayBlockingQueue<JsonBuffer> POOL =
+            new ArrayBlockingQueue<>(Math.max(1, Config.getInt("JSON_BUFFER_POOL_SIZE", 64)));
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private byte[] bytes = new byte[INITIAL_CAPACITY];
+    private int size;
+
+    public static JsonBuffer acquire() {
+        JsonBuffer buffer = POOL.poll();
+        return buffer != null ? buffer : new JsonBuffer();
+    }
+
+    /** Returns the buffer to the pool; one that grew past the retain limit is left to the GC. */
+    @Override
+    public void close() {
+        size = 0;
+        if (bytes.length <= MAX_RETAINED) POOL.offer(this);
+    }
+
+    public int size() { return size; }
+    public void reset() { size = 0; }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, size);
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    public JsonBuffer raw(char c) {
+        ensure(1);
+        bytes[size++] = (byte) c;
+        return this;
+    }
+
+    /** Appends ASCII text as-is; used for punctuation and field names. */
+    public JsonBuffer raw(String ascii) {
+        int n = ascii.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) bytes[size++] = (byte) ascii.charAt(i);
+        return this;
+    }
+
+    public JsonBuffer number(int value) {
+        if (value == Integer.MIN_VALUE) return raw("-2147483648");
+        ensure(11);
+        if (value < 0) {
+            bytes[size++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (int v = value; v >= 10; v /= 10) digits++;
+        int end = size + digits;
+        for (int i = end - 1; i >= size; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size = end;
+        return this;
+    }
+
+    public JsonBuffer number(long value) {
+        if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) return number((int) value);
+        return raw(Long.toString(value));
+    }
+
+    /** Same text as Gson: Double.toString, and NaN or infinity are rejected. */
+    public JsonBuffer number(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("JSON forbids NaN and infinities: " + value);
+        }
+        return raw(Double.toString(value));
+    }
+
+    public JsonBuffer string(String s) {
+        int n = s.length();
+        ensure(n + 2);
+        bytes[size++] = '"';
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                String escape = escape(c);
+                if (escape == null) {
+                    ensure(1);
+                    bytes[size++] = (byte) c;
+                } else if (escape.isEmpty()) {
+                    unicodeEscape(c);
+                } else {
+                    raw(escape);
+                }
+            } else if (c < 0x800) {
+                ensure(2);
+                bytes[size++] = (byte) (0xC0 | (c >> 6));
+                bytes[size++] = (byte) (0x80 | (c & 0x3F));
+            } else if (c == '\u2028' || c == '\u2029') {
+                unicodeEscape(c);
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                ensure(4);
+                bytes[size++] = (byte) (0xF0 | (cp >> 18));
+                bytes[size++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                bytes[size++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                bytes[size++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // String.getBytes(UTF_8) turns an unpaired surrogate into '?'.
+                ensure(1);
+                bytes[size++] = '?';
+            } else {
+                ensure(3);
+                bytes[size++] = (byte) (0xE0 | (c >> 12));
+                bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        ensure(1);
+        bytes[size++] = '"';
+        return this;
+    }
+
+    /** null for "write as is", "" for a \\u escape, otherwise the short escape. Mirrors Gson's HTML-safe table. */
+    private static String escape(char c) {
+        switch (c) {
+            case '"': return "\\\"";
+            case '\\': return "\\\\";
+            case '\t': return "\\t";
+            case '\b': return "\\b";
+            case '\n': return "\\n";
+            case '\r': return "\\r";
+            case '\f': return "\\f";
+            case '<': case '>': case '&': case '=': case '\'':
+                return "";
+            default:
+                return c < 0x20 ? "" : null;
+        }
+    }
+
+    private void unicodeEscape(char c) {
+        ensure(6);
+        bytes[size++] = '\\';
+        bytes[size++] = 'u';
+        bytes[size++] = HEX[(c >> 12) & 0xF];
+        bytes[size++] = HEX[(c >> 8) & 0xF];
+        bytes[size++] = HEX[(c >> 4) & 0xF];
+        bytes[size++] = HEX[c & 0xF];
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+    }
+}
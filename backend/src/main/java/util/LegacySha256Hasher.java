@@ -0,0 +1,46 @@
+package util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** The original unsalted SHA-256 hex format. Only kept to verify, and then upgrade, old rows. */
+public class LegacySha256Hasher implements PasswordHasher {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    @Override
+    public String hash(String password) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8));
+            char[] out = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                out[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+                out[i * 2 + 1] = HEX[digest[i] & 0xf];
+            }
+            return new String(out);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+
+    @Override
+    public boolean supports(String stored) {
+        if (stored == null || stored.length() != 64) return false;
+        for (int i = 0; i < stored.length(); i++) {
+            char c = stored.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean verify(String password, String stored) {
+        return MessageDigest.isEqual(hash(password).getBytes(StandardCharsets.US_ASCII),
+                stored.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Override
+    public boolean needsRehash(String stored) {
+        return true;
+    }
+}
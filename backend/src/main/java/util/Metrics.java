@@ -0,0 +1,208 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide metrics registry rendered in the Prometheus text format.
+ * Series are registered once, typically into static fields, and then
+ * updated without any lookups.
+ *
+ * It also tracks, per thread, how long the current request has spent in DAO
+ * calls and in JSON encoding, so the request filter can report the split.
+ */
+public final class Metrics {
+    // Exported as Prometheus histogram buckets, so quantiles can be taken over any window with histogram_quantile.
+    private static final String[] BUCKET_LE = {
+            "0.0005", "0.001", "0.0025", "0.005", "0.01", "0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10" };
+    private static final long[] BUCKET_NANOS = new long[BUCKET_LE.length];
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    static {
+        for (int i = 0; i < BUCKET_LE.length; i++) {
+            BUCKET_NANOS[i] = Math.round(Double.parseDouble(BUCKET_LE[i]) * NANOS_PER_SECOND);
+        }
+    }
+
+    private static final class Family {
+        final String help;
+        final String type;
+        final Map<String, Object> series = new LinkedHashMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private static final Map<String, Family> FAMILIES = new LinkedHashMap<>();
+
+    // [0] DAO nanos, [1] serialization nanos, [2] DAO call depth, [3] nanos paused inside DAO calls
+    private static final ThreadLocal<long[]> REQUEST = ThreadLocal.withInitial(() -> new long[4]);
+
+    private Metrics() { }
+
+    public static LatencyHistogram histogram(String name, String help, String labels) {
+        return (LatencyHistogram) register(name, help, "histogram", labels, LatencyHistogram::new);
+    }
+
+    /** Latency of one DAO method; pair with {@link #daoStart} and {@link #daoEnd}. */
+    public static LatencyHistogram daoHistogram(String dao, String method) {
+        return histogram("dao_call_seconds", "Time spent in DAO methods", label("dao", dao) + "," + label("method", method));
+    }
+
+    public static LongAdder counter(String name, String help, String labels) {
+        return (LongAdder) register(name, help, "counter", labels, LongAdder::new);
+    }
+
+    /** A value read at scrape time; type is "gauge" or "counter". */
+    public static void gauge(String name, String help, String type, String labels, DoubleSupplier value) {
+        register(name, help, type, labels, () -> value);
+    }
+
+    private static synchronized Object register(String name, String help, String type, String labels,
+                                                Supplier<Object> create) {
+        Family family = FAMILIES.computeIfAbsent(name, k -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already a " + family.type);
+        }
+        return family.series.computeIfAbsent(labels == null ? "" : labels, k -> create.get());
+    }
+
+    /** Zeroes every histogram and counter, e.g. after startup warmup traffic. Gauges are read live and stay as they are. */
+    public static synchronized void reset() {
+        for (Family family : FAMILIES.values()) {
+            for (Object series : family.series.values()) {
+                if (series instanceof LatencyHistogram) ((LatencyHistogram) series).reset();
+                else if (series instanceof LongAdder) ((LongAdder) series).reset();
+            }
+        }
+    }
+
+    // ---------------- request timing ----------------
+
+    /** Start of a DAO call. Pass the result to {@link #daoEnd}. */
+    public static long daoStart() {
+        long[] request = REQUEST.get();
+        request[2]++;
+        return System.nanoTime() - request[1] - request[3];
+    }
+
+    /**
+     * Records a DAO call. JSON written and time paused from inside the call
+     * (streaming exports) are subtracted, and nested DAO calls only count
+     * once towards the request total.
+     */
+    public static void daoEnd(LatencyHistogram histogram, long start) {
+        long[] request = REQUEST.get();
+        long elapsed = System.nanoTime() - request[1] - request[3] - start;
+        histogram.record(elapsed);
+        if (--request[2] == 0) request[0] += elapsed;
+    }
+
+    /**
+     * Start of caller code run from inside a DAO call, such as the row sink
+     * of a streaming export. Pass the result to {@link #daoResume}; the time
+     * between them is not DAO time. Serialization inside it still counts as
+     * serialization.
+     */
+    public static long daoPause() {
+        return System.nanoTime() - REQUEST.get()[1];
+    }
+
+    public static void daoResume(long pause) {
+        long[] request = REQUEST.get();
+        request[3] += System.nanoTime() - request[1] - pause;
+    }
+
+    public static void serialized(long startNanos) {
+        REQUEST.get()[1] += System.nanoTime() - startNanos;
+    }
+
+    /** Running DAO nanos for this thread; take a difference across a request. */
+    public static long threadDaoNanos() {
+        return REQUEST.get()[0];
+    }
+
+    public static long threadSerializeNanos() {
+        return REQUEST.get()[1];
+    }
+
+    // ---------------- exposition ----------------
+
+    public static String scrape() {
+        List<Map.Entry<String, Family>> families;
+        synchronized (Metrics.class) {
+            families = new ArrayList<>();
+            for (Map.Entry<String, Family> e : FAMILIES.entrySet()) {
+                Family copy = new Family(e.getValue().help, e.getValue().type);
+                copy.series.putAll(e.getValue().series);
+                families.add(Map.entry(e.getKey(), copy));
+            }
+        }
+
+        StringBuilder out = new StringBuilder(8192);
+        for (Map.Entry<String, Family> e : families) {
+            String name = e.getKey();
+            Family family = e.getValue();
+            StringBuilder samples = new StringBuilder();
+            StringBuilder maxes = null;
+            for (Map.Entry<String, Object> s : family.series.entrySet()) {
+                String labels = s.getKey();
+                Object metric = s.getValue();
+                if (metric instanceof LatencyHistogram) {
+                    LatencyHistogram h = (LatencyHistogram) metric;
+                    if (h.getCount() == 0) continue;
+                    long[] cumulative = h.cumulativeCounts(BUCKET_NANOS);
+                    for (int i = 0; i < BUCKET_LE.length; i++) {
+                        sample(samples, name + "_bucket", join(labels, "le=\"" + BUCKET_LE[i] + "\""), cumulative[i]);
+                    }
+                    long total = cumulative[BUCKET_LE.length];
+                    sample(samples, name + "_bucket", join(labels, "le=\"+Inf\""), total);
+                    sample(samples, name + "_sum", labels, h.getSumNanos() / NANOS_PER_SECOND);
+                    sample(samples, name + "_count", labels, total);
+                    if (maxes == null) maxes = new StringBuilder();
+                    sample(maxes, name + "_max", labels, h.getMaxNanos() / NANOS_PER_SECOND);
+                } else if (metric instanceof LongAdder) {
+                    sample(samples, name, labels, ((LongAdder) metric).sum());
+                } else {
+                    sample(samples, name, labels, ((DoubleSupplier) metric).getAsDouble());
+                }
+            }
+            if (samples.length() == 0) continue;
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            out.append(samples);
+            if (maxes != null) {
+                out.append("# HELP ").append(name).append("_max Largest value of ").append(name).append(" since start\n");
+                out.append("# TYPE ").append(name).append("_max gauge\n");
+                out.append(maxes);
+            }
+        }
+        return out.toString();
+    }
+
+    private static String join(String labels, String extra) {
+        return labels.isEmpty() ? extra : labels + "," + extra;
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) out.append('{').append(labels).append('}');
+        out.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) out.append((long) value);
+        else out.append(value);
+        out.append('\n');
+    }
+
+    /** Quotes a label value per the exposition format. */
+    public static String label(String name, String value) {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+}
@@ -0,0 +1,86 @@
+package util;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Times every request on the contexts it is attached to, per endpoint and
+ * method, and counts responses by status code. For each request it also
+ * records how much of that time went to DAO calls and to JSON encoding.
+ * Everything is registered up front, so the per-request cost is a handful
+ * of clock reads and atomic adds.
+ */
+public class MetricsFilter extends Filter {
+    private static final String[] METHODS = { "GET", "POST", "PUT", "PATCH", "DELETE", "OPTIONS", "HEAD", "OTHER" };
+
+    private final String endpoint;
+    private final LatencyHistogram[] latency = new LatencyHistogram[METHODS.length];
+    private final LatencyHistogram[] dbTime = new LatencyHistogram[METHODS.length];
+    private final LatencyHistogram[] serializeTime = new LatencyHistogram[METHODS.length];
+    private final LongAdder requests;
+    private final LongAdder errors;
+    private final AtomicReferenceArray<LongAdder> byStatus = new AtomicReferenceArray<>(600);
+
+    public MetricsFilter(String endpoint) {
+        this.endpoint = endpoint;
+        for (int i = 0; i < METHODS.length; i++) {
+            String labels = Metrics.label("endpoint", endpoint) + "," + Metrics.label("method", METHODS[i]);
+            latency[i] = Metrics.histogram("http_request_duration_seconds",
+                    "Time from request dispatch until the handler returned", labels);
+            dbTime[i] = Metrics.histogram("http_request_db_seconds",
+                    "Time each request spent in DAO calls", labels);
+            serializeTime[i] = Metrics.histogram("http_request_serialize_seconds",
+                    "Time each request spent encoding JSON", labels);
+        }
+        requests = Metrics.counter("http_requests_total", "Requests received", Metrics.label("endpoint", endpoint));
+        errors = Metrics.counter("http_errors_total",
+                "Requests that failed with an exception or a 5xx status", Metrics.label("endpoint", endpoint));
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        int method = methodIndex(exchange.getRequestMethod());
+        long db = Metrics.threadDaoNanos();
+        long serialize = Metrics.threadSerializeNanos();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            chain.doFilter(exchange);
+            failed = false;
+        } finally {
+            latency[method].recordSince(start);
+            dbTime[method].record(Metrics.threadDaoNanos() - db);
+            serializeTime[method].record(Metrics.threadSerializeNanos() - serialize);
+            requests.increment();
+            int status = exchange.getResponseCode();
+            if (failed || status >= 500) errors.increment();
+            if (status > 0 && status < 600) statusCounter(status).increment();
+        }
+    }
+
+    private LongAdder statusCounter(int status) {
+        LongAdder counter = byStatus.get(status);
+        if (counter == null) {
+            counter = Metrics.counter("http_responses_total", "Responses sent, by status code",
+                    Metrics.label("endpoint", endpoint) + ",code=\"" + status + "\"");
+            byStatus.compareAndSet(status, null, counter);
+        }
+        return counter;
+    }
+
+    private static int methodIndex(String method) {
+        for (int i = 0; i < METHODS.length - 1; i++) {
+            if (METHODS[i].equalsIgnoreCase(method)) return i;
+        }
+        return METHODS.length - 1;
+    }
+
+    @Override
+    public String description() {
+        return "Records latency and status metrics for " + endpoint;
+    }
+}
@@ -0,0 +1,93 @@
+package util;
+
+import model.Book;
+import model.ChangeSet;
+import model.Customer;
+import model.Page;
+
+import java.util.List;
+
+/**
+ * Hand-written JSON encoders for the models that dominate response volume.
+ * Field order and null handling follow Gson's reflective output (declaration
+ * order, null fields omitted), so either encoder produces the same bytes.
+ */
+public final class ModelJson {
+    public interface Encoder<T> {
+        void write(JsonBuffer out, T value);
+    }
+
+    private ModelJson() {}
+
+    public static void book(JsonBuffer out, Book b) {
+        if (b == null) {
+            out.raw("null");
+            return;
+        }
+        out.raw("{\"id\":").number(b.getId());
+        if (b.getTitle() != null) out.raw(",\"title\":").string(b.getTitle());
+        if (b.getAuthor() != null) out.raw(",\"author\":").string(b.getAuthor());
+        out.raw(",\"price\":").number(b.getPrice());
+        out.raw(",\"stock\":").number(b.getStock());
+        out.raw(",\"version\":").number(b.getVersion());
+        out.raw('}');
+    }
+
+    public static void customer(JsonBuffer out, Customer c) {
+        if (c == null) {
+            out.raw("null");
+            return;
+        }
+        out.raw("{\"id\":").number(c.getId());
+        if (c.getName() != null) out.raw(",\"name\":").string(c.getName());
+        if (c.getEmail() != null) out.raw(",\"email\":").string(c.getEmail());
+        if (c.getPhone() != null) out.raw(",\"phone\":").string(c.getPhone());
+        out.raw(",\"version\":").number(c.getVersion());
+        out.raw('}');
+    }
+
+    public static <T> void array(JsonBuffer out, List<T> items, Encoder<T> encoder) {
+        if (items == null) {
+            out.raw("null");
+            return;
+        }
+        out.raw('[');
+        for (int i = 0; i < items.size(); i++) {
+            if (i > 0) out.raw(',');
+            encoder.write(out, items.get(i));
+        }
+        out.raw(']');
+    }
+
+    public static <T> void page(JsonBuffer out, Page<T> page, Encoder<T> encoder) {
+        if (page == null) {
+            out.raw("null");
+            return;
+        }
+        out.raw('{');
+        boolean first = true;
+        if (page.getItems() != null) {
+            out.raw("\"items\":");
+            array(out, page.getItems(), encoder);
+            first = false;
+        }
+        if (page.getNext() != null) {
+            out.raw(first ? "\"next\":" : ",\"next\":").string(page.getNext());
+        }
+        out.raw('}');
+    }
+
+    public static void changes(JsonBuffer out, ChangeSet c) {
+        out.raw("{\"next\":").number(c.getNext());
+        out.raw(",\"more\":").raw(c.isMore() ? "true" : "false");
+        out.raw(",\"books\":");
+        array(out, c.getBooks(), ModelJson::book);
+        out.raw(",\"deletedBooks\":");
+        array(out, c.getDeletedBooks(), (o, id) -> o.number(id));
+        out.raw(",\"customers\":");
+        array(out, c.getCustomers(), ModelJson::customer);
+        out.raw(",\"deletedCustomers\":");
+        array(out, c.getDeletedCustomers(), (o, id) -> o.number(id));
+        out.raw('}');
+    }
+}
@@ -0,0 +1,14 @@
+package util;
+
+public interface PasswordHasher {
+    /** Encodes the password together with everything needed to verify it later (algorithm, cost, salt). */
+    String hash(String password);
+
+    /** True when this hasher understands the stored format. */
+    boolean supports(String stored);
+
+    boolean verify(String password, String stored);
+
+    /** True when the stored hash should be replaced by a fresh hash(password). */
+    boolean needsRehash(String stored);
+}
@@ -0,0 +1,128 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs password hashing on its own small, bounded pool so that expensive KDF
+ * work cannot take over the request threads. When the pool and its queue are
+ * full, or a hash waits longer than HASH_TIMEOUT_MS, callers get a
+ * BusyException instead of queueing indefinitely.
+ *
+ * The timeout only bounds how long the caller waits. A timed-out hash that
+ * is still queued is removed, but one that has started runs to completion:
+ * PBKDF2 does not check for interrupts. The real cap on abandoned work is the
+ * queue capacity, enforced when a hash is submitted.
+ */
+public class PasswordHashing {
+
+    public static class BusyException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public BusyException(String message) {
+            super(message);
+        }
+    }
+
+    private final PasswordHasher current;
+    private final List<PasswordHasher> known;
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMs;
+    private final AtomicLong rejected = new AtomicLong();
+
+    private static volatile PasswordHashing instance;
+
+    public PasswordHashing(PasswordHasher current, List<PasswordHasher> legacy, int threads, int queueCapacity, long timeoutMs) {
+        this.current = current;
+        this.known = new ArrayList<>();
+        this.known.add(current);
+        this.known.addAll(legacy);
+        this.timeoutMs = timeoutMs;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread t = new Thread(r, "password-hash-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public static PasswordHashing get() {
+        PasswordHashing result = instance;
+        if (result == null) {
+            synchronized (PasswordHashing.class) {
+                result = instance;
+                if (result == null) {
+                    result = new PasswordHashing(
+                            new Pbkdf2PasswordHasher(Config.getInt("PASSWORD_COST", 210000)),
+                            List.of(new LegacySha256Hasher()),
+                            Config.getInt("HASH_THREADS", Runtime.getRuntime().availableProcessors()),
+                            Config.getInt("HASH_QUEUE_CAPACITY", 64),
+                            Config.getLong("HASH_TIMEOUT_MS", 5000));
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    public String hash(String password) {
+        return run(() -> current.hash(password));
+    }
+
+    public boolean verify(String password, String stored) {
+        if (stored == null) return false;
+        for (PasswordHasher hasher : known) {
+            if (hasher.supports(stored)) return run(() -> hasher.verify(password, stored));
+        }
+        return false;
+    }
+
+    public boolean needsRehash(String stored) {
+        return current.needsRehash(stored);
+    }
+
+    public long getRejected() { return rejected.get(); }
+    public int getQueued() { return executor.getQueue().size(); }
+    public int getActive() { return executor.getActiveCount(); }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private <T> T run(Callable<T> task) {
+        Future<T> future;
+        try {
+            future = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw new BusyException("Password hashing queue is full");
+        }
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Frees the queue slot if the hash has not started; a running one cannot be stopped.
+            if (future.cancel(false)) executor.remove((Runnable) future);
+            rejected.incrementAndGet();
+            throw new BusyException("Password hashing timed out");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (future.cancel(false)) executor.remove((Runnable) future);
+            throw new BusyException("Interrupted while hashing");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+}
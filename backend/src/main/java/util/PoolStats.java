@@ -0,0 +1,58 @@
+package util;
+
+public class PoolStats {
+    private final int total;
+    private final int idle;
+    private final int active;
+    private final int waiting;
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowed;
+    private final long created;
+    private final long destroyed;
+    private final long timeouts;
+    private final long validationFailures;
+    private final long leaks;
+    private final long avgWaitMicros;
+
+    public PoolStats(int total, int idle, int active, int waiting, int minSize, int maxSize,
+                     long borrowed, long created, long destroyed, long timeouts,
+                     long validationFailures, long leaks, long avgWaitMicros) {
+        this.total = total;
+        this.idle = idle;
+        this.active = active;
+        this.waiting = waiting;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.borrowed = borrowed;
+        this.created = created;
+        this.destroyed = destroyed;
+        this.timeouts = timeouts;
+        this.validationFailures = validationFailures;
+        this.leaks = leaks;
+        this.avgWaitMicros = avgWaitMicros;
+    }
+
+    public int getTotal() { return total; }
+    public int getIdle() { return idle; }
+    public int getActive() { return active; }
+    public int getWaiting() { return waiting; }
+    public int getMinSize() { return minSize; }
+    public int getMaxSize() { return maxSize; }
+    public long getBorrowed() { return borrowed; }
+    public long getCreated() { return created; }
+    public long getDestroyed() { return destroyed; }
+    public long getTimeouts() { return timeouts; }
+    public long getValidationFailures() { return validationFailures; }
+    public long getLeaks() { return leaks; }
+    public long getAvgWaitMicros() { return avgWaitMicros; }
+
+    @Override
+    public String toString() {
+        return "total=" + total + ", idle=" + idle + ", active=" + active + ", waiting=" + waiting
+                + ", min=" + minSize + ", max=" + maxSize + ", borrowed=" + borrowed
+                + ", created=" + created + ", destroyed=" + destroyed + ", timeouts=" + timeouts
+                + ", validationFailures=" + validationFailures + ", leaks=" + leaks
+                + ", avgWaitMicros=" + avgWaitMicros;
+    }
+}
@@ -0,0 +1,39 @@
+package util;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+public class QueryParams {
+
+    public static Map<String, String> parse(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) return params;
+        for (String pair : rawQuery.split("&")) {
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.putIfAbsent(URLDecoder.decode(key, StandardCharsets.UTF_8),
+                    URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    /** Resolves the requested page size: missing means the default, anything above the cap is clamped. */
+    public static int pageSize(Map<String, String> params) {
+        int max = Config.getInt("PAGE_SIZE_MAX", 500);
+        int def = Math.min(Config.getInt("PAGE_SIZE_DEFAULT", 50), max);
+        String limit = params.get("limit");
+        if (limit == null || limit.isEmpty()) return def;
+        int requested;
+        try {
+            requested = Integer.parseInt(limit);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("limit must be a number");
+        }
+        if (requested < 1) throw new IllegalArgumentException("limit must be at least 1");
+        return Math.min(requested, max);
+    }
+}
@@ -0,0 +1,117 @@
+package util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-key token bucket. Each key costs one AtomicLong holding the time at
+ * which its bucket will be full again (the GCRA form of a token bucket), so
+ * acquiring is a single CAS and never blocks.
+ *
+ * A key whose bucket has refilled carries no state worth keeping, so a
+ * background sweep drops it. Once maxKeys keys are tracked, a new key first
+ * triggers an early sweep. If none of the tracked keys has refilled, the new
+ * key is rejected: a flood of distinct keys must not open a gap in the limit.
+ */
+public class RateLimiter {
+
+    private final String name;
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final int maxKeys;
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong overflow = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * @param burst     attempts a fresh key may make back to back
+     * @param perMinute sustained attempts per minute once the burst is spent
+     */
+    public RateLimiter(String name, int burst, int perMinute, int maxKeys, long sweepIntervalMs) {
+        if (burst < 1 || perMinute < 1) {
+            throw new IllegalArgumentException("Invalid rate limit for " + name + ": burst=" + burst + ", perMinute=" + perMinute);
+        }
+        this.name = name;
+        this.intervalNanos = TimeUnit.MINUTES.toNanos(1) / perMinute;
+        this.burstNanos = intervalNanos * (burst - 1);
+        this.maxKeys = maxKeys;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "rate-limiter-" + name);
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMs, sweepIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes one token for the key.
+     *
+     * @return 0 if the attempt is allowed, otherwise how many milliseconds
+     *         until the next one would be
+     */
+    public long tryAcquire(String key) {
+        long now = System.nanoTime();
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            if (buckets.size() >= maxKeys && !sweepEarly(now)) {
+                overflow.incrementAndGet();
+                rejected.incrementAndGet();
+                return Math.max(1, TimeUnit.NANOSECONDS.toMillis(intervalNanos));
+            }
+            bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+        }
+        while (true) {
+            long full = bucket.get();
+            long from = full - now < 0 ? now : full;
+            long wait = from - now - burstNanos;
+            if (wait > 0) {
+                rejected.incrementAndGet();
+                return Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait));
+            }
+            if (bucket.compareAndSet(full, from + intervalNanos)) {
+                admitted.incrementAndGet();
+                return 0;
+            }
+        }
+    }
+
+    /** Sweeps at most once per refill interval, so a key flood cannot make every request scan the map. */
+    private boolean sweepEarly(long now) {
+        long last = lastSweep.get();
+        if (now - last >= intervalNanos && lastSweep.compareAndSet(last, now)) sweep();
+        return buckets.size() < maxKeys;
+    }
+
+    private void sweep() {
+        long now = System.nanoTime();
+        lastSweep.set(now);
+        Iterator<Map.Entry<String, AtomicLong>> it = buckets.entrySet().iterator();
+        while (it.hasNext()) {
+            // Racing a concurrent acquire only costs that key one token of credit.
+            if (it.next().getValue().get() - now <= 0) {
+                it.remove();
+                evicted.incrementAndGet();
+            }
+        }
+    }
+
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    public String getName() { return name; }
+    public int getTrackedKeys() { return buckets.size(); }
+    public long getAdmitted() { return admitted.get(); }
+    public long getRejected() { return rejected.get(); }
+    public long getOverflow() { return overflow.get(); }
+    public long getEvicted() { return evicted.get(); }
+}
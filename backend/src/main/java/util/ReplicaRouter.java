@@ -0,0 +1,160 @@
+package util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends writes to the primary and spreads reads round-robin over the
+ * replicas. A replica that cannot open or validate a connection is taken out
+ * of rotation at once, and the read moves on to the next replica. A replica
+ * whose pool is merely exhausted stays in rotation; the read waits at most
+ * replicaWaitMs for it before moving on. When none are left it goes to the
+ * primary, with the primary pool's full borrow timeout. A background check
+ * puts a replica back once it answers again. With no replicas every read
+ * simply goes to the primary.
+ */
+public class ReplicaRouter {
+
+    private static final class Replica {
+        final String name;
+        final ConnectionSource source;
+        final AtomicLong reads = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong busy = new AtomicLong();
+        volatile boolean healthy = true;
+
+        Replica(String name, ConnectionSource source) {
+            this.name = name;
+            this.source = source;
+        }
+    }
+
+    private final ConnectionSource primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicLong primaryReads = new AtomicLong();
+    private final long replicaWaitMs;
+    private final int validationTimeoutSec;
+    private final ScheduledExecutorService checker;
+
+    public ReplicaRouter(ConnectionSource primary, List<ConnectionSource> replicaSources, long checkIntervalMs,
+                         long replicaWaitMs, int validationTimeoutSec) {
+        this.primary = primary;
+        this.replicaWaitMs = replicaWaitMs;
+        this.validationTimeoutSec = validationTimeoutSec;
+        for (ConnectionSource source : replicaSources) {
+            replicas.add(new Replica("replica-" + (replicas.size() + 1), source));
+        }
+        if (replicas.isEmpty()) {
+            checker = null;
+            return;
+        }
+        checker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-replica-check");
+            t.setDaemon(true);
+            return t;
+        });
+        checker.scheduleWithFixedDelay(this::checkReplicas, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public ConnectionSource getPrimary() {
+        return primary;
+    }
+
+    public boolean hasReplicas() {
+        return !replicas.isEmpty();
+    }
+
+    public Connection write() throws SQLException {
+        return primary.borrow();
+    }
+
+    public Connection read() throws SQLException {
+        int n = replicas.size();
+        if (n > 0) {
+            int start = next.getAndIncrement();
+            for (int i = 0; i < n; i++) {
+                Replica replica = replicas.get(Math.floorMod(start + i, n));
+                if (!replica.healthy) continue;
+                try {
+                    Connection conn = replica.source.borrow(replicaWaitMs);
+                    replica.reads.incrementAndGet();
+                    return conn;
+                } catch (SQLTransientConnectionException e) {
+                    replica.busy.incrementAndGet();
+                } catch (SQLException | RuntimeException e) {
+                    if (Thread.currentThread().isInterrupted()) throw e;
+                    markDown(replica, e);
+                }
+            }
+        }
+        primaryReads.incrementAndGet();
+        return primary.borrow();
+    }
+
+    private void markDown(Replica replica, Exception cause) {
+        replica.failures.incrementAndGet();
+        if (replica.healthy) {
+            replica.healthy = false;
+            System.out.println("⚠️ " + replica.name + " taken out of rotation: " + cause.getMessage());
+        }
+    }
+
+    private void checkReplicas() {
+        for (Replica replica : replicas) {
+            boolean ok;
+            try (Connection conn = replica.source.borrow(0)) {
+                ok = conn.isValid(validationTimeoutSec);
+            } catch (SQLTransientConnectionException e) {
+                // Every connection is out serving reads, which is as healthy as it gets.
+                ok = true;
+            } catch (SQLException | RuntimeException e) {
+                ok = false;
+            }
+            if (ok && !replica.healthy) System.out.println("✅ " + replica.name + " back in rotation");
+            if (!ok && replica.healthy) markDown(replica, new SQLException("health check failed"));
+            replica.healthy = ok;
+        }
+    }
+
+    /** Per-replica health, read counts and pool stats, plus reads that fell back to the primary. */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("primaryReads", primaryReads.get());
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (Replica replica : replicas) {
+            Map<String, Object> r = new LinkedHashMap<>();
+            r.put("name", replica.name);
+            r.put("healthy", replica.healthy);
+            r.put("reads", replica.reads.get());
+            r.put("failures", replica.failures.get());
+            r.put("busy", replica.busy.get());
+            r.put("pool", replica.source.stats());
+            list.add(r);
+        }
+        stats.put("replicas", list);
+        return stats;
+    }
+
+    public int getHealthyReplicas() {
+        int healthy = 0;
+        for (Replica replica : replicas) if (replica.healthy) healthy++;
+        return healthy;
+    }
+
+    public void close() {
+        if (checker != null) checker.shutdownNow();
+        for (Replica replica : replicas) replica.source.close();
+        primary.close();
+    }
+}
@@ -0,0 +1,125 @@
+package util;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The one place responses are written. Bodies always go out with a
+ * Content-Length (chunked only for streams), large bodies are gzipped when
+ * the client accepts it, and the exchange is closed once the body is out so
+ * the connection goes back to the keep-alive pool.
+ */
+public final class Responses {
+    public static final String JSON = "application/json; charset=UTF-8";
+
+    private static final int GZIP_MIN_BYTES = Config.getInt("GZIP_MIN_BYTES", 1024);
+
+    private Responses() {}
+
+    public static void json(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        send(exchange, code, JSON, bytes, bytes.length);
+    }
+
+    /** Sends what was encoded into the buffer; the buffer itself stays with the caller. */
+    public static void json(HttpExchange exchange, int code, JsonBuffer body) throws IOException {
+        if (shouldGzip(exchange, body.size())) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.size() / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) { body.writeTo(gzip); }
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.getResponseHeaders().set("Content-Type", JSON);
+            raw(exchange, code, compressed.toByteArray());
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", JSON);
+        try {
+            exchange.sendResponseHeaders(code, body.size());
+            try (OutputStream os = exchange.getResponseBody()) { body.writeTo(os); }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /** {"error": message}, with the message escaped. */
+    public static void error(HttpExchange exchange, int code, String message) throws IOException {
+        try (JsonBuffer body = JsonBuffer.acquire()) {
+            body.raw("{\"error\":").string(message == null ? "Unexpected error" : message).raw('}');
+            json(exchange, code, body);
+        }
+    }
+
+    public static void send(HttpExchange exchange, int code, String contentType, byte[] body, int length) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        if (shouldGzip(exchange, length)) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) { gzip.write(body, 0, length); }
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            raw(exchange, code, compressed.toByteArray());
+        } else if (length == body.length) {
+            raw(exchange, code, body);
+        } else {
+            try {
+                exchange.sendResponseHeaders(code, length);
+                try (OutputStream os = exchange.getResponseBody()) { os.write(body, 0, length); }
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    /** Writes bytes exactly as given; headers such as Content-Encoding are the caller's. */
+    public static void raw(HttpExchange exchange, int code, byte[] body) throws IOException {
+        try {
+            if (body.length == 0) {
+                exchange.sendResponseHeaders(code, -1);
+            } else {
+                exchange.sendResponseHeaders(code, body.length);
+                try (OutputStream os = exchange.getResponseBody()) { os.write(body); }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /** A response without a body, such as 204 or 304. */
+    public static void empty(HttpExchange exchange, int code) throws IOException {
+        try {
+            exchange.sendResponseHeaders(code, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Starts a chunked response and returns its body, gzipped if the client
+     * accepts it. Closing the stream ends the response.
+     */
+    public static OutputStream stream(HttpExchange exchange, int code, String contentType) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", contentType);
+        headers.set("Vary", "Accept-Encoding");
+        boolean gzip = acceptsGzip(exchange);
+        if (gzip) headers.set("Content-Encoding", "gzip");
+        exchange.sendResponseHeaders(code, 0);
+        OutputStream body = exchange.getResponseBody();
+        return gzip ? new GZIPOutputStream(body, 16 * 1024) : body;
+    }
+
+    /** True when a body of this size should be compressed for this client. Sets Vary either way. */
+    public static boolean shouldGzip(HttpExchange exchange, int length) {
+        if (length < GZIP_MIN_BYTES) return false;
+        exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+        return acceptsGzip(exchange);
+    }
+
+    public static boolean acceptsGzip(HttpExchange exchange) {
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        return accept != null && accept.contains("gzip");
+    }
+}
@@ -0,0 +1,237 @@
+package util;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single entry point for every request. Routes are compiled once at startup
+ * from patterns such as "/api/books/{id}", where a {name} segment matches a
+ * non-negative int. Matching walks the raw path in place, without split or
+ * regex. The router answers CORS preflights itself, runs each route behind
+ * the filters of the scope it was registered in, and closes the exchange
+ * so the connection can be reused. A route that throws after its response
+ * started is not closed: the server drops the connection, so the client
+ * sees a truncated transfer rather than a short but complete body.
+ */
+public class Router implements HttpHandler {
+    /**
+     * A handler for one method and pattern. Throwing before the response
+     * starts answers 500; throwing after it started aborts the response.
+     */
+    public interface Route {
+        void handle(HttpExchange exchange, Params params) throws Exception;
+    }
+
+    private static final String PARAMS = "router.params";
+    private static final String ALLOW_HEADERS = "Content-Type, Authorization, If-None-Match";
+    private static final String EXPOSE_HEADERS = "ETag, Retry-After";
+
+    private final List<Path> paths = new ArrayList<>();
+
+    /** Routes registered through the returned scope run behind the given filters, in order. */
+    public Scope scope(List<Filter> filters) {
+        return new Scope(List.copyOf(filters));
+    }
+
+    public Scope scope(Filter... filters) {
+        return scope(List.of(filters));
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        boolean completed = false;
+        try {
+            route(exchange);
+            completed = true;
+        } finally {
+            // Closing a started response would write the final chunk and pass a
+            // cut-off body off as complete. Leaving it open lets the exception
+            // reach the server, which drops the connection instead.
+            if (completed || exchange.getResponseCode() < 0) exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Access-Control-Allow-Origin", "*");
+        headers.set("Access-Control-Expose-Headers", EXPOSE_HEADERS);
+        String path = exchange.getRequestURI().getRawPath();
+        for (Path candidate : paths) {
+            int[] bounds = candidate.match(path);
+            if (bounds != null) {
+                dispatch(exchange, candidate, new Params(path, candidate.names, bounds));
+                return;
+            }
+        }
+        Responses.error(exchange, 404, "Not found");
+    }
+
+    private void dispatch(HttpExchange exchange, Path path, Params params) throws IOException {
+        String method = exchange.getRequestMethod();
+        if (method.equals("OPTIONS")) {
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Access-Control-Allow-Methods", path.allow);
+            headers.set("Access-Control-Allow-Headers", ALLOW_HEADERS);
+            headers.set("Access-Control-Max-Age", "600");
+            Responses.empty(exchange, 204);
+            return;
+        }
+        Binding binding = path.methods.get(method);
+        if (binding == null) {
+            exchange.getResponseHeaders().set("Allow", path.allow);
+            Responses.error(exchange, 405, "Unsupported method");
+            return;
+        }
+        exchange.setAttribute(PARAMS, params);
+        new Filter.Chain(binding.filters, binding).doFilter(exchange);
+    }
+
+    private Path path(String pattern) {
+        for (Path path : paths) {
+            if (path.pattern.equals(pattern)) return path;
+        }
+        Path path = new Path(pattern);
+        paths.add(path);
+        return path;
+    }
+
+    public final class Scope {
+        private final List<Filter> filters;
+
+        private Scope(List<Filter> filters) {
+            this.filters = filters;
+        }
+
+        public Scope get(String pattern, Route route) { return add("GET", pattern, route); }
+        public Scope post(String pattern, Route route) { return add("POST", pattern, route); }
+        public Scope put(String pattern, Route route) { return add("PUT", pattern, route); }
+        public Scope patch(String pattern, Route route) { return add("PATCH", pattern, route); }
+        public Scope delete(String pattern, Route route) { return add("DELETE", pattern, route); }
+
+        public Scope add(String method, String pattern, Route route) {
+            Path path = path(pattern);
+            if (path.methods.putIfAbsent(method, new Binding(route, filters)) != null) {
+                throw new IllegalStateException("Duplicate route " + method + " " + pattern);
+            }
+            path.allow = String.join(", ", path.methods.keySet()) + ", OPTIONS";
+            return this;
+        }
+    }
+
+    /** Values of the {name} segments of the matched pattern. */
+    public static final class Params {
+        private final String path;
+        private final String[] names;
+        private final int[] bounds;
+
+        private Params(String path, String[] names, int[] bounds) {
+            this.path = path;
+            this.names = names;
+            this.bounds = bounds;
+        }
+
+        public int getInt(String name) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) return parse(path, bounds[2 * i], bounds[2 * i + 1]);
+            }
+            throw new IllegalArgumentException("No path parameter " + name);
+        }
+    }
+
+    /** One route handler plus the filters it runs behind. */
+    private static final class Binding implements HttpHandler {
+        private final Route route;
+        private final List<Filter> filters;
+
+        Binding(Route route, List<Filter> filters) {
+            this.route = route;
+            this.filters = filters;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                route.handle(exchange, (Params) exchange.getAttribute(PARAMS));
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                if (exchange.getResponseCode() < 0) {
+                    Responses.error(exchange, 500, String.valueOf(e.getMessage()));
+                    return;
+                }
+                System.out.println("❌ " + exchange.getRequestMethod() + " " + exchange.getRequestURI()
+                        + " failed after the response started: " + e);
+                // Too late for a 500: abort, so handle() drops the connection.
+                throw new IOException("Response aborted", e);
+            }
+        }
+    }
+
+    /** A compiled pattern and the methods registered on it. */
+    private static final class Path {
+        private final String pattern;
+        private final String[] segments;
+        private final String[] names;
+        private final Map<String, Binding> methods = new LinkedHashMap<>();
+        private String allow = "OPTIONS";
+
+        Path(String pattern) {
+            if (!pattern.startsWith("/")) throw new IllegalArgumentException("Pattern must start with /: " + pattern);
+            this.pattern = pattern;
+            this.segments = pattern.length() == 1 ? new String[0] : pattern.substring(1).split("/");
+            List<String> params = new ArrayList<>();
+            for (int i = 0; i < segments.length; i++) {
+                String segment = segments[i];
+                if (segment.startsWith("{") && segment.endsWith("}")) {
+                    params.add(segment.substring(1, segment.length() - 1));
+                    segments[i] = null;
+                }
+            }
+            this.names = params.toArray(new String[0]);
+        }
+
+        /** Start/end offsets of each parameter, or null if the path does not match. A trailing slash is ignored. */
+        int[] match(String path) {
+            int len = path.length();
+            if (len > 1 && path.charAt(len - 1) == '/') len--;
+            int[] bounds = new int[names.length * 2];
+            int param = 0;
+            int pos = 0;
+            for (String segment : segments) {
+                if (pos >= len || path.charAt(pos) != '/') return null;
+                pos++;
+                int end = path.indexOf('/', pos);
+                if (end < 0 || end > len) end = len;
+                if (segment != null) {
+                    if (end - pos != segment.length() || !path.startsWith(segment, pos)) return null;
+                } else {
+                    if (parse(path, pos, end) < 0) return null;
+                    bounds[param++] = pos;
+                    bounds[param++] = end;
+                }
+                pos = end;
+            }
+            return pos == len || (segments.length == 0 && len == 1) ? bounds : null;
+        }
+    }
+
+    /** The decimal int in path[start, end), or -1 if it is empty, not all digits, or too large. */
+    private static int parse(String path, int start, int end) {
+        if (start >= end || end - start > 10) return -1;
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = path.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value > Integer.MAX_VALUE ? -1 : (int) value;
+    }
+}
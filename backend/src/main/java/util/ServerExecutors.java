@@ -0,0 +1,72 @@
+package util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds the executor that HttpServer dispatches exchanges onto.
+ * Modes: "virtual" (one virtual thread per request, needs Java 21+),
+ * "pool" (bounded platform thread pool) and "default" (the HttpServer
+ * dispatcher thread itself).
+ */
+public class ServerExecutors {
+
+    private static final ThreadLocal<Boolean> REJECTED = new ThreadLocal<>();
+
+    public static ExecutorService create(String mode, int threads, int queueCapacity) {
+        switch (mode.toLowerCase()) {
+            case "virtual":
+                ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+                if (virtual != null) return virtual;
+                System.out.println("⚠️ Virtual threads need Java 21+, falling back to a pool of " + threads + " threads");
+                return newBoundedPool(threads, queueCapacity);
+            case "pool":
+                return newBoundedPool(threads, queueCapacity);
+            case "default":
+                return null;
+            default:
+                throw new IllegalArgumentException("Unknown SERVER_EXECUTOR mode: " + mode);
+        }
+    }
+
+    /** True while the current thread runs an exchange the executor had no room for. */
+    public static boolean isRejected() {
+        return Boolean.TRUE.equals(REJECTED.get());
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService newBoundedPool(int threads, int queueCapacity) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "http-worker-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        // HttpServer's dispatcher does not expect execute() to throw, so overflow
+        // runs on the dispatcher thread flagged as rejected and is answered with 503.
+        RejectedExecutionHandler overflow = (task, executor) -> {
+            if (executor.isShutdown()) return;
+            REJECTED.set(Boolean.TRUE);
+            try {
+                task.run();
+            } finally {
+                REJECTED.remove();
+            }
+        };
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), factory, overflow);
+    }
+}
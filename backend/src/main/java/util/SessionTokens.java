@@ -0,0 +1,152 @@
+package util;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stateless, HMAC-signed session tokens of the form payload.signature, where
+ * the payload carries the user id, expiry and a token id. Verifying one is
+ * pure CPU: no database or shared state beyond the optional revocation list.
+ */
+public class SessionTokens {
+
+    public static class Session {
+        private final int userId;
+        private final long expiresAt;
+        private final String tokenId;
+
+        Session(int userId, long expiresAt, String tokenId) {
+            this.userId = userId;
+            this.expiresAt = expiresAt;
+            this.tokenId = tokenId;
+        }
+
+        public int getUserId() { return userId; }
+        public long getExpiresAt() { return expiresAt; }
+        public String getTokenId() { return tokenId; }
+    }
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final int MIN_SECRET_BYTES = 32;
+    private static final Set<String> PLACEHOLDER_SECRETS = Set.of(
+            "change-me-to-a-long-random-string", "change-me", "changeme", "secret", "your-secret-here");
+
+    private final byte[] secret;
+    private final long ttlMs;
+    private final int maxRevoked;
+    // Token id to the token's own expiry. An entry is only dropped once its token has expired anyway.
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+    private final ThreadLocal<Mac> macs;
+
+    public SessionTokens(byte[] secret, long ttlMs, int maxRevoked) {
+        this.secret = secret.clone();
+        this.ttlMs = ttlMs;
+        this.maxRevoked = maxRevoked;
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(this.secret, "HmacSHA256"));
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 unavailable", e);
+            }
+        });
+    }
+
+    /**
+     * Reads SESSION_SECRET, or makes a random one so tokens only last until
+     * restart. A known placeholder or a secret shorter than 32 bytes stops
+     * startup, since anyone could forge tokens signed with it.
+     */
+    public static SessionTokens fromConfig() {
+        String configured = Config.get("SESSION_SECRET");
+        byte[] secret;
+        if (configured == null || configured.isBlank()) {
+            System.out.println("⚠️ SESSION_SECRET not set, sessions will not survive a restart");
+            secret = new byte[MIN_SECRET_BYTES];
+            RANDOM.nextBytes(secret);
+        } else {
+            secret = configured.trim().getBytes(StandardCharsets.UTF_8);
+            if (PLACEHOLDER_SECRETS.contains(configured.trim().toLowerCase(Locale.ROOT))) {
+                throw new IllegalStateException("SESSION_SECRET is the example placeholder; set a long random value");
+            }
+            if (secret.length < MIN_SECRET_BYTES) {
+                throw new IllegalStateException("SESSION_SECRET must be at least " + MIN_SECRET_BYTES
+                        + " bytes, got " + secret.length);
+            }
+        }
+        return new SessionTokens(secret,
+                Config.getLong("SESSION_TTL_SECONDS", 3600) * 1000,
+                Config.getInt("SESSION_REVOCATION_MAX", 10000));
+    }
+
+    public String issue(int userId) {
+        byte[] id = new byte[12];
+        RANDOM.nextBytes(id);
+        long expiresAt = System.currentTimeMillis() + ttlMs;
+        String payload = ENCODER.encodeToString(
+                (userId + ":" + expiresAt + ":" + ENCODER.encodeToString(id)).getBytes(StandardCharsets.US_ASCII));
+        return payload + "." + ENCODER.encodeToString(sign(payload));
+    }
+
+    /** Returns the session for a valid, unexpired, unrevoked token, otherwise null. */
+    public Session verify(String token) {
+        if (token == null) return null;
+        int dot = token.indexOf('.');
+        if (dot <= 0 || dot == token.length() - 1) return null;
+        String payload = token.substring(0, dot);
+        try {
+            byte[] signature = DECODER.decode(token.substring(dot + 1));
+            if (!MessageDigest.isEqual(signature, sign(payload))) return null;
+            String[] fields = new String(DECODER.decode(payload), StandardCharsets.US_ASCII).split(":");
+            if (fields.length != 3) return null;
+            Session session = new Session(Integer.parseInt(fields[0]), Long.parseLong(fields[1]), fields[2]);
+            if (session.expiresAt <= System.currentTimeMillis()) return null;
+            if (revoked.containsKey(session.tokenId)) return null;
+            return session;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Remembers the token as revoked until it would have expired anyway.
+     * Returns false when maxRevoked unexpired tokens are already revoked:
+     * dropping one of them would make it valid again. With maxRevoked 0
+     * nothing is remembered and logout only discards the token client-side.
+     */
+    public boolean revoke(Session session) {
+        if (maxRevoked <= 0) return true;
+        if (revoked.size() >= maxRevoked) purgeExpired();
+        if (revoked.size() >= maxRevoked) return false;
+        revoked.put(session.tokenId, session.expiresAt);
+        return true;
+    }
+
+    private void purgeExpired() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Long> it = revoked.values().iterator(); it.hasNext(); ) {
+            if (it.next() <= now) it.remove();
+        }
+    }
+
+    public long getTtlMs() { return ttlMs; }
+
+    public int getRevoked() { return revoked.size(); }
+
+    private byte[] sign(String payload) {
+        return macs.get().doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+    }
+}
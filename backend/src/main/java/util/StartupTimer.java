@@ -0,0 +1,34 @@
+package util;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Times server startup as a series of laps, each named for the phase that
+ * just finished, and prints them as one line together with how long the JVM
+ * took to reach main.
+ */
+public class StartupTimer {
+    private final long jvmMs = ManagementFactory.getRuntimeMXBean().getUptime();
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private long lapStart = System.nanoTime();
+    private long totalNanos;
+
+    /** Ends the current phase under this name and starts timing the next. */
+    public void lap(String phase) {
+        long now = System.nanoTime();
+        phases.merge(phase, now - lapStart, Long::sum);
+        totalNanos += now - lapStart;
+        lapStart = now;
+    }
+
+    public void report() {
+        StringBuilder out = new StringBuilder("⏱️ Startup: jvm ").append(jvmMs).append("ms");
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            out.append(", ").append(phase.getKey()).append(' ').append(phase.getValue() / 1_000_000).append("ms");
+        }
+        out.append(" (ready ").append(jvmMs + totalNanos / 1_000_000).append("ms after JVM start)");
+        System.out.println(out);
+    }
+}
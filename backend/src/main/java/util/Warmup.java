@@ -0,0 +1,94 @@
+package util;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends synthetic GET requests through the real handler chain before the
+ * port is open. The first requests therefore do not pay for class loading,
+ * lazy pools and caches, or interpreted code. Requests run in memory; their
+ * responses are thrown away.
+ */
+public class Warmup {
+    private final HttpHandler handler;
+    private final Map<String, String> headers;
+    private int requests;
+    private int failures;
+
+    public Warmup(HttpHandler handler, Map<String, String> headers) {
+        this.handler = handler;
+        this.headers = headers;
+    }
+
+    /** Cycles through the paths up to iterations times, stopping early once maxMs has passed. */
+    public void run(List<String> paths, int iterations, long maxMs) {
+        long deadline = System.nanoTime() + maxMs * 1_000_000;
+        for (int i = 0; i < iterations && System.nanoTime() < deadline; i++) {
+            for (String path : paths) {
+                Exchange exchange = new Exchange(URI.create(path), headers);
+                try {
+                    handler.handle(exchange);
+                    if (exchange.getResponseCode() >= 400) failures++;
+                } catch (IOException | RuntimeException e) {
+                    failures++;
+                }
+                requests++;
+            }
+        }
+    }
+
+    public int getRequests() { return requests; }
+    public int getFailures() { return failures; }
+
+    private static final class Exchange extends HttpExchange {
+        private static final InetSocketAddress LOCAL = new InetSocketAddress("127.0.0.1", 0);
+
+        private final URI uri;
+        private final Headers requestHeaders = new Headers();
+        private final Headers responseHeaders = new Headers();
+        private final Map<String, Object> attributes = new HashMap<>();
+        private InputStream in = InputStream.nullInputStream();
+        private OutputStream out = OutputStream.nullOutputStream();
+        private int code = -1;
+
+        Exchange(URI uri, Map<String, String> headers) {
+            this.uri = uri;
+            headers.forEach(requestHeaders::set);
+        }
+
+        @Override public Headers getRequestHeaders() { return requestHeaders; }
+        @Override public Headers getResponseHeaders() { return responseHeaders; }
+        @Override public URI getRequestURI() { return uri; }
+        @Override public String getRequestMethod() { return "GET"; }
+        @Override public HttpContext getHttpContext() { return null; }
+        @Override public void close() { }
+        @Override public InputStream getRequestBody() { return in; }
+        @Override public OutputStream getResponseBody() { return out; }
+        @Override public void sendResponseHeaders(int rCode, long responseLength) { code = rCode; }
+        @Override public InetSocketAddress getRemoteAddress() { return LOCAL; }
+        @Override public int getResponseCode() { return code; }
+        @Override public InetSocketAddress getLocalAddress() { return LOCAL; }
+        @Override public String getProtocol() { return "HTTP/1.1"; }
+        @Override public Object getAttribute(String name) { return attributes.get(name); }
+        @Override public void setAttribute(String name, Object value) { attributes.put(name, value); }
+        @Override public HttpPrincipal getPrincipal() { return null; }
+
+        @Override
+        public void setStreams(InputStream i, OutputStream o) {
+            if (i != null) in = i;
+            if (o != null) out = o;
+        }
+    }
+}
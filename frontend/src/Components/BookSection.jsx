@@ -1,39 +1,91 @@
-import { useEffect, useState } from "react";
+import { useEffect, useRef, useState } from "react";
 import { motion, AnimatePresence } from "framer-motion";
 import toast from "react-hot-toast";
-import { PlusCircle, X, Edit2, Trash2, BookOpen, Search } from "lucide-react";
+import { authHeaders } from "../auth";
+import { changedFields } from "../patch";
+import { changeCursor, mergePage, subscribeChanges } from "../changes";
+import { PlusCircle, X, Edit2, Trash2, BookOpen, Search, ChevronLeft, ChevronRight } from "lucide-react";
+
+const PAGE_SIZE = 50;
 
 export default function BookSection() {
   const API_URL = import.meta.env.VITE_API_URL;
-  const [books, setBooks] = useState([]);
+  const [page, setPage] = useState({ items: [], next: null });
+  const [trail, setTrail] = useState([]);
+  const pageRef = useRef(page);
+  const afterRef = useRef("");
   const [form, setForm] = useState({ title: "", author: "", price: "", stock: "" });
   const [editing, setEditing] = useState(null);
   const [showModal, setShowModal] = useState(false);
   const [search, setSearch] = useState("");
 
-  const fetchBooks = async () => {
+  const fetchBooks = async (after = afterRef.current) => {
     try {
-      const res = await fetch(`${API_URL}/api/books`);
-      const data = await res.json();
-      setBooks(data);
+      const res = await fetch(`${API_URL}/api/books?limit=${PAGE_SIZE}${after ? `&after=${encodeURIComponent(after)}` : ""}`, {
+        headers: authHeaders(),
+      });
+      if (!res.ok) throw new Error(`list ${res.status}`);
+      const loaded = await res.json();
+      afterRef.current = after;
+      pageRef.current = loaded;
+      setPage(loaded);
+      return true;
     } catch {
       toast.error("Failed to load books");
+      return false;
     }
   };
 
+  // trail holds the "after" token of every page before this one, so Prev can go back.
+  const nextPage = async () => {
+    const from = afterRef.current;
+    if (await fetchBooks(page.next)) setTrail((t) => [...t, from]);
+  };
+
+  const prevPage = async () => {
+    if (await fetchBooks(trail[trail.length - 1])) setTrail((t) => t.slice(0, -1));
+  };
+
   useEffect(() => {
-    fetchBooks();
+    let unsubscribe = () => {};
+    let unmounted = false;
+    (async () => {
+      // The cursor is read before the list, so writes made while it loads still arrive.
+      const since = await changeCursor();
+      await fetchBooks();
+      if (unmounted) return;
+      unsubscribe = subscribeChanges({
+        since,
+        onChanges: (delta) => {
+          const merged = mergePage(pageRef.current, delta.books, delta.deletedBooks);
+          if (!merged) return fetchBooks();
+          pageRef.current = merged;
+          setPage(merged);
+        },
+        onReset: () => fetchBooks(),
+      });
+    })();
+    return () => {
+      unmounted = true;
+      unsubscribe();
+    };
   }, []);
 
   const handleSubmit = async (e) => {
     e.preventDefault();
-    const method = editing ? "PUT" : "POST";
+    const method = editing ? "PATCH" : "POST";
+    const body = editing ? changedFields(editing, form, ["title", "author", "price", "stock"]) : form;
+    if (editing && Object.keys(body).length === 1) {
+      setEditing(null);
+      setShowModal(false);
+      return;
+    }
     const url = editing ? `${API_URL}/api/books/${editing.id}` : `${API_URL}/api/books`;
 
     const res = await fetch(url, {
       method,
-      headers: { "Content-Type": "application/json" },
-      body: JSON.stringify(form),
+      headers: { "Content-Type": "application/json", ...authHeaders() },
+      body: JSON.stringify(body),
     });
 
     if (res.ok) {
@@ -42,11 +94,19 @@ export default function BookSection() {
       setEditing(null);
       setShowModal(false);
       fetchBooks();
+    } else if (res.status === 409) {
+      toast.error("Someone else changed this book. Reloaded the latest version.");
+      setShowModal(false);
+      setEditing(null);
+      fetchBooks();
     } else toast.error("Error saving book");
   };
 
   const handleDelete = async (id) => {
-    const res = await fetch(`${API_URL}/api/books/${id}`, { method: "DELETE" });
+    const res = await fetch(`${API_URL}/api/books/${id}`, {
+      method: "DELETE",
+      headers: authHeaders(),
+    });
     if (res.ok) {
       toast.success("Book deleted!");
       fetchBooks();
@@ -65,7 +125,7 @@ export default function BookSection() {
     setShowModal(true);
   };
 
-  const filteredBooks = books.filter(
+  const filteredBooks = page.items.filter(
     (b) =>
       b.title.toLowerCase().includes(search.toLowerCase()) ||
       b.author.toLowerCase().includes(search.toLowerCase())
@@ -92,7 +152,7 @@ export default function BookSection() {
       <div className="relative mb-4">
         <Search size={18} className="absolute left-3 top-2.5 text-slate-400" />
         <input
-          placeholder="Search by title or author..."
+          placeholder="Filter this page by title or author..."
           className="pl-10 pr-3 py-2 w-full rounded-lg bg-slate-800 border border-slate-700 text-slate-200 focus:border-blue-400 outline-none"
           value={search}
           onChange={(e) => setSearch(e.target.value)}
@@ -152,6 +212,25 @@ export default function BookSection() {
         </table>
       </div>
 
+      {/* Pager */}
+      <div className="flex justify-between items-center mt-4 text-sm text-slate-400">
+        <button
+          onClick={prevPage}
+          disabled={!trail.length}
+          className="flex items-center gap-1 px-3 py-1.5 rounded-lg bg-slate-800 border border-slate-700 hover:border-blue-400 disabled:opacity-40 disabled:hover:border-slate-700 transition"
+        >
+          <ChevronLeft size={16} /> Prev
+        </button>
+        <span>Page {trail.length + 1}</span>
+        <button
+          onClick={nextPage}
+          disabled={!page.next}
+          className="flex items-center gap-1 px-3 py-1.5 rounded-lg bg-slate-800 border border-slate-700 hover:border-blue-400 disabled:opacity-40 disabled:hover:border-slate-700 transition"
+        >
+          Next <ChevronRight size={16} />
+        </button>
+      </div>
+
       {/* Modal */}
       <AnimatePresence>
         {showModal && (
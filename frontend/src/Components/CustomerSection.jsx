@@ -1,6 +1,9 @@
-import { useEffect, useState } from "react";
+import { useEffect, useRef, useState } from "react";
 import { motion, AnimatePresence } from "framer-motion";
 import toast from "react-hot-toast";
+import { authHeaders } from "../auth";
+import { changedFields } from "../patch";
+import { changeCursor, mergePage, subscribeChanges } from "../changes";
 import {
   PlusCircle,
   X,
@@ -9,34 +12,85 @@ import {
   Users,
   Search,
   ChevronDown,
+  ChevronLeft,
+  ChevronRight,
 } from "lucide-react";
 
+const PAGE_SIZE = 50;
+
 export default function CustomerSection() {
   const API_URL = import.meta.env.VITE_API_URL;
-  const [customers, setCustomers] = useState([]);
+  const [page, setPage] = useState({ items: [], next: null });
+  const [trail, setTrail] = useState([]);
+  const pageRef = useRef(page);
+  const afterRef = useRef("");
   const [form, setForm] = useState({ name: "", email: "", phone: "" });
   const [editing, setEditing] = useState(null);
   const [showModal, setShowModal] = useState(false);
   const [search, setSearch] = useState("");
   const [sortBy, setSortBy] = useState("name");
 
-  const fetchCustomers = async () => {
+  const fetchCustomers = async (after = afterRef.current) => {
     try {
-      const res = await fetch(`${API_URL}/api/customers`);
-      const data = await res.json();
-      setCustomers(data);
+      const res = await fetch(`${API_URL}/api/customers?limit=${PAGE_SIZE}${after ? `&after=${encodeURIComponent(after)}` : ""}`, {
+        headers: authHeaders(),
+      });
+      if (!res.ok) throw new Error(`list ${res.status}`);
+      const loaded = await res.json();
+      afterRef.current = after;
+      pageRef.current = loaded;
+      setPage(loaded);
+      return true;
     } catch {
       toast.error("Failed to load customers");
+      return false;
     }
   };
 
+  // trail holds the "after" token of every page before this one, so Prev can go back.
+  const nextPage = async () => {
+    const from = afterRef.current;
+    if (await fetchCustomers(page.next)) setTrail((t) => [...t, from]);
+  };
+
+  const prevPage = async () => {
+    if (await fetchCustomers(trail[trail.length - 1])) setTrail((t) => t.slice(0, -1));
+  };
+
   useEffect(() => {
-    fetchCustomers();
+    let unsubscribe = () => {};
+    let unmounted = false;
+    (async () => {
+      // The cursor is read before the list, so writes made while it loads still arrive.
+      const since = await changeCursor();
+      await fetchCustomers();
+      if (unmounted) return;
+      unsubscribe = subscribeChanges({
+        since,
+        onChanges: (delta) => {
+          const merged = mergePage(pageRef.current, delta.customers, delta.deletedCustomers);
+          if (!merged) return fetchCustomers();
+          pageRef.current = merged;
+          setPage(merged);
+        },
+        onReset: () => fetchCustomers(),
+      });
+    })();
+    return () => {
+      unmounted = true;
+      unsubscribe();
+    };
   }, []);
 
   const handleSubmit = async (e) => {
     e.preventDefault();
-    const method = editing ? "PUT" : "POST";
+    const method = editing ? "PATCH" : "POST";
+    const body = editing ? changedFields(editing, form, ["name", "email", "phone"]) : form;
+    if (editing && Object.keys(body).length === 1) {
+      setEditing(null);
+      setShowModal(false);
+      return;
+    }
     const url = editing
       ? `${API_URL}/api/customers/${editing.id}`
       : `${API_URL}/api/customers`;
@@ -44,8 +98,8 @@ export default function CustomerSection() {
     try {
       const res = await fetch(url, {
         method,
-        headers: { "Content-Type": "application/json" },
-        body: JSON.stringify(form),
+        headers: { "Content-Type": "application/json", ...authHeaders() },
+        body: JSON.stringify(body),
       });
 
       if (res.ok) {
@@ -54,6 +108,11 @@ export default function CustomerSection() {
         setEditing(null);
         setShowModal(false);
         fetchCustomers();
+      } else if (res.status === 409) {
+        toast.error("Someone else changed this customer. Reloaded the latest version.");
+        setShowModal(false);
+        setEditing(null);
+        fetchCustomers();
       } else toast.error("Error saving customer");
     } catch {
       toast.error("Network error");
@@ -65,6 +124,7 @@ export default function CustomerSection() {
     try {
       const res = await fetch(`${API_URL}/api/customers/${id}`, {
         method: "DELETE",
+        headers: authHeaders(),
       });
       if (res.ok) {
         toast.success("Customer deleted!");
@@ -87,7 +147,7 @@ export default function CustomerSection() {
     setShowModal(true);
   };
 
-  const filteredCustomers = customers
+  const filteredCustomers = page.items
     .filter(
       (c) =>
         c.name.toLowerCase().includes(search.toLowerCase()) ||
@@ -119,7 +179,7 @@ export default function CustomerSection() {
         <div className="relative flex-1">
           <Search size={18} className="absolute left-3 top-2.5 text-slate-400" />
           <input
-            placeholder="Search by name, email or phone..."
+            placeholder="Filter this page by name, email or phone..."
             value={search}
             onChange={(e) => setSearch(e.target.value)}
             className="pl-10 pr-3 py-2 w-full rounded-lg bg-slate-800 border border-slate-700 text-slate-200 focus:border-blue-400 outline-none"
@@ -196,6 +256,25 @@ export default function CustomerSection() {
         </table>
       </div>
 
+      {/* Pager */}
+      <div className="flex justify-between items-center mt-4 text-sm text-slate-400">
+        <button
+          onClick={prevPage}
+          disabled={!trail.length}
+          className="flex items-center gap-1 px-3 py-1.5 rounded-lg bg-slate-800 border border-slate-700 hover:border-blue-400 disabled:opacity-40 disabled:hover:border-slate-700 transition"
+        >
+          <ChevronLeft size={16} /> Prev
+        </button>
+        <span>Page {trail.length + 1}</span>
+        <button
+          onClick={nextPage}
+          disabled={!page.next}
+          className="flex items-center gap-1 px-3 py-1.5 rounded-lg bg-slate-800 border border-slate-700 hover:border-blue-400 disabled:opacity-40 disabled:hover:border-slate-700 transition"
+        >
+          Next <ChevronRight size={16} />
+        </button>
+      </div>
+
       {/* Modal */}
       <AnimatePresence>
         {showModal && (
@@ -4,17 +4,22 @@ import CustomerSection from "../Components/CustomerSection";
 import { BookOpen, Users } from "lucide-react";
 import { motion } from "framer-motion";
 import { useNavigate } from "react-router-dom";
+import { authHeaders } from "../auth";
 
 export default function Home() {
   const [tab, setTab] = useState("books");
   const navigate = useNavigate();
 
   useEffect(() => {
-    const user = localStorage.getItem("user");
-    if (!user) navigate("/login");
+    const user = JSON.parse(localStorage.getItem("user") || "null");
+    if (!user || !user.token) navigate("/login");
   }, []);
 
   const logout = () => {
+    fetch(`${import.meta.env.VITE_API_URL}/api/session`, {
+      method: "DELETE",
+      headers: authHeaders(),
+    }).catch(() => {});
     localStorage.removeItem("user");
     navigate("/login");
   };
@@ -0,0 +1,4 @@
+export function authHeaders() {
+  const user = JSON.parse(localStorage.getItem("user") || "{}");
+  return user.token ? { Authorization: `Bearer ${user.token}` } : {};
+}
@@ -0,0 +1,165 @@
+import { authHeaders } from "./auth";
+
+const API_URL = import.meta.env.VITE_API_URL;
+const RETRY_MS = 3000;
+
+// The change-feed cursor as of now. Read it before loading a list and pass it
+// to subscribeChanges, so writes that land during the list fetch still arrive.
+// Null if the feed is unreachable; the subscription then starts from "now".
+export async function changeCursor() {
+  try {
+    const res = await fetch(`${API_URL}/api/changes`, { headers: authHeaders() });
+    if (!res.ok) return null;
+    return String((await res.json()).next);
+  } catch {
+    return null;
+  }
+}
+
+// One /api/changes/stream per tab, shared by every subscriber: each stream holds
+// a server thread and CHANGE_STREAM_MAX_CLIENTS of them are allowed in total.
+// EventSource cannot send the Authorization header, so the stream is read with
+// fetch and reconnects from the last event id.
+let shared = null;
+
+// Delivers deltas after the cursor `since` (from changeCursor) until the
+// returned function is called. A subscriber behind the shared stream is first
+// caught up through /api/changes?since=, so it misses nothing in between.
+export function subscribeChanges({ since = null, onChanges, onReset }) {
+  const listener = { cursor: since === null ? null : Number(since), onChanges, onReset, catchingUp: false, active: true };
+  if (!shared) {
+    shared = { listeners: new Set([listener]), lastId: null, controller: new AbortController() };
+    follow(shared);
+  } else {
+    shared.listeners.add(listener);
+    if (shared.lastId !== null) offer(shared, listener, shared.lastId, shared.lastId, null);
+  }
+  const stream = shared;
+  return () => {
+    listener.active = false;
+    stream.listeners.delete(listener);
+    if (stream.listeners.size === 0) {
+      stream.controller.abort();
+      if (shared === stream) shared = null;
+    }
+  };
+}
+
+async function follow(stream) {
+  const { signal } = stream.controller;
+  while (!signal.aborted) {
+    const from = stream.lastId ?? oldestCursor(stream);
+    try {
+      const res = await fetch(`${API_URL}/api/changes/stream`, {
+        headers: { ...authHeaders(), ...(from !== null ? { "Last-Event-ID": String(from) } : {}) },
+        signal,
+      });
+      if (!res.ok) throw new Error(`stream ${res.status}`);
+      const reader = res.body.pipeThrough(new TextDecoderStream()).getReader();
+      let buffer = "";
+      for (;;) {
+        const { value, done } = await reader.read();
+        if (done) break;
+        buffer += value;
+        let end;
+        while ((end = buffer.indexOf("\n\n")) >= 0) {
+          const event = parse(buffer.slice(0, end));
+          buffer = buffer.slice(end + 2);
+          if (event.name) dispatch(stream, event);
+        }
+      }
+    } catch {
+      if (signal.aborted) return;
+    }
+    await new Promise((resolve) => setTimeout(resolve, RETRY_MS));
+  }
+}
+
+function oldestCursor(stream) {
+  const cursors = [...stream.listeners].map((l) => l.cursor).filter((c) => c !== null);
+  return cursors.length ? Math.min(...cursors) : null;
+}
+
+function dispatch(stream, event) {
+  const id = Number(event.id);
+  const prev = stream.lastId ?? id;
+  stream.lastId = id;
+  const delta = event.name === "changes" ? JSON.parse(event.data) : null;
+  stream.listeners.forEach((listener) => {
+    if (event.name === "reset") {
+      // The requested cursor fell out of the log: everyone reloads from here.
+      listener.cursor = id;
+      listener.onReset();
+    } else {
+      offer(stream, listener, prev, id, delta);
+    }
+  });
+}
+
+// Hands the delta covering (prev, id] to a listener that has seen up to prev.
+// A listener further behind catches up on its own instead.
+function offer(stream, listener, prev, id, delta) {
+  if (listener.catchingUp) return;
+  if (listener.cursor === null || listener.cursor >= prev) {
+    if (delta && (listener.cursor === null || listener.cursor < id)) listener.onChanges(delta);
+    listener.cursor = Math.max(listener.cursor ?? id, id);
+  } else {
+    catchUp(stream, listener);
+  }
+}
+
+async function catchUp(stream, listener) {
+  listener.catchingUp = true;
+  try {
+    while (listener.active && listener.cursor < stream.lastId) {
+      try {
+        const res = await fetch(`${API_URL}/api/changes?since=${listener.cursor}`, { headers: authHeaders() });
+        const body = await res.json();
+        if (!listener.active) return;
+        if (res.status === 410) {
+          listener.cursor = Number(body.next);
+          listener.onReset();
+        } else if (res.ok) {
+          listener.onChanges(body);
+          listener.cursor = Number(body.next);
+        } else {
+          throw new Error(`changes ${res.status}`);
+        }
+      } catch {
+        await new Promise((resolve) => setTimeout(resolve, RETRY_MS));
+      }
+    }
+  } finally {
+    listener.catchingUp = false;
+  }
+}
+
+function parse(block) {
+  const event = {};
+  block.split("\n").forEach((line) => {
+    const colon = line.indexOf(": ");
+    if (colon <= 0) return;
+    const field = line.slice(0, colon);
+    const value = line.slice(colon + 2);
+    if (field === "event") event.name = value;
+    else if (field === "id") event.id = value;
+    else if (field === "data") event.data = value;
+  });
+  return event;
+}
+
+// Applies a delta to one page of rows kept sorted by id. Rows on the page are
+// updated or dropped in place. Returns null when an upsert may belong on this
+// page but is not on it (an insert), so the caller reloads the page instead.
+export function mergePage(page, upserts, deletedIds) {
+  if (!upserts.length && !deletedIds.length) return page;
+  const rows = page.items;
+  const byId = new Map(rows.map((row) => [row.id, row]));
+  const last = rows.length ? rows[rows.length - 1].id : 0;
+  for (const row of upserts) {
+    if (byId.has(row.id)) byId.set(row.id, row);
+    else if ((rows.length && row.id > rows[0].id && row.id < last) || (!page.next && row.id > last)) return null;
+  }
+  deletedIds.forEach((id) => byId.delete(id));
+  return { ...page, items: rows.filter((row) => byId.has(row.id)).map((row) => byId.get(row.id)) };
+}
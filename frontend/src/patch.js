@@ -0,0 +1,8 @@
+// Body for a PATCH: the fields that differ from the row as loaded, plus its version.
+export function changedFields(original, edited, keys) {
+  const patch = { version: original.version };
+  keys.forEach((key) => {
+    if (String(edited[key] ?? "") !== String(original[key] ?? "")) patch[key] = edited[key];
+  });
+  return patch;
+}